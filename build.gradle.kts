@@ -16,9 +16,19 @@ repositories {
     }
 }
 
+sourceSets {
+    create("jmh") {
+        // The benchmarks use the corpus generator from the test sources
+        compileClasspath += sourceSets.main.get().output + sourceSets.test.get().output
+        runtimeClasspath += sourceSets.main.get().output + sourceSets.test.get().output
+    }
+}
+
 dependencies {
     testImplementation("org.junit.jupiter:junit-jupiter:5.8.2")
     testImplementation("org.assertj:assertj-core:3.23.1")
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.36")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.36")
 }
 
 group = "com.github.wilinz"
@@ -35,6 +45,15 @@ tasks.test {
     useJUnitPlatform()
 }
 
+// Runs the benchmarks, JMH options can be passed like: ./gradlew jmh -PjmhArgs="-p entries=100 -f 1"
+tasks.register<JavaExec>("jmh") {
+    description = "Runs the JMH benchmarks."
+    group = "verification"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    args = (project.findProperty("jmhArgs") as String?)?.split(" ") ?: emptyList()
+}
+
 tasks.withType<JavaCompile>() {
     options.encoding = "UTF-8"
 }
@@ -0,0 +1,64 @@
+package org.codejive.properties;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks for the bulk operations. Each call works on a fresh copy of the same properties, which
+ * gets made before the call so the copying itself isn't part of the measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BulkBenchmark {
+    @Param({"100", "10000", "1000000"})
+    int entries;
+
+    private Map<String, String> overrides;
+    private List<String> removals;
+    private Properties props;
+    private Properties target;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        String text = new PropertiesGenerator(entries).entries(entries).generate();
+        props = Properties.loadProperties(new StringReader(text));
+        String[] keys = props.keySet().toArray(new String[0]);
+        // Half of them replace existing values, the other half are new
+        overrides = new LinkedHashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            overrides.put(i % 2 == 0 ? keys[i] : "override.key" + i, "override");
+        }
+        // Every other key gets removed
+        removals = new ArrayList<>();
+        for (int i = 0; i < keys.length; i += 2) {
+            removals.add(keys[i]);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void copy() {
+        target = props.copy();
+    }
+
+    @Benchmark
+    public Properties putAll() {
+        target.putAll(overrides);
+        return target;
+    }
+
+    @Benchmark
+    public Properties removeAll() {
+        target.removeAll(removals);
+        return target;
+    }
+}
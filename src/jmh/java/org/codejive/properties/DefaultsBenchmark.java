@@ -0,0 +1,63 @@
+package org.codejive.properties;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks for lookups through a chain of defaults. The bottom layer contains all the entries,
+ * each layer on top of it overrides roughly one percent of them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DefaultsBenchmark {
+    @Param({"100", "10000", "1000000"})
+    int entries;
+
+    @Param({"1", "5"})
+    int depth;
+
+    private String[] keys;
+    private Properties props;
+    private int lookup;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        String text = new PropertiesGenerator(entries).entries(entries).generate();
+        props = Properties.loadProperties(new StringReader(text));
+        keys = props.keySet().toArray(new String[0]);
+        for (int layer = 1; layer < depth; layer++) {
+            props = new Properties(props);
+            for (int i = layer; i < keys.length; i += 100) {
+                props.put(keys[i], "layer " + layer);
+            }
+        }
+    }
+
+    // Walks all the keys in a scattered order
+    private String nextKey() {
+        lookup = (lookup + 7919) % keys.length;
+        return keys[lookup];
+    }
+
+    @Benchmark
+    public String getProperty() {
+        return props.getProperty(nextKey());
+    }
+
+    @Benchmark
+    public String getPropertyMissing() {
+        return props.getProperty("missing.key", "default");
+    }
+
+    @Benchmark
+    public Set<String> stringPropertyNames() {
+        return props.stringPropertyNames();
+    }
+}
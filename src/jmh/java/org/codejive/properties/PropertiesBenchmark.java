@@ -0,0 +1,248 @@
+package org.codejive.properties;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for loading, looking up, changing and storing properties. Mutating benchmarks work on
+ * an instance that is reloaded before each iteration, <code>putNew</code> keeps adding keys during
+ * an iteration so its numbers include the growth of the table.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PropertiesBenchmark {
+    private static final List<String> COMMENT_A = Arrays.asList("# first comment");
+    private static final List<String> COMMENT_B =
+            Arrays.asList("# a longer", "# comment of", "# three lines");
+    private static final int FILES = 64;
+
+    @Param({"100", "10000", "1000000"})
+    int entries;
+
+    private String text;
+    private String changedText;
+    private byte[] snapshot;
+    private Path dir;
+    private Path file;
+    private List<Path> files;
+    private String[] keys;
+    private Properties props;
+    private int lookup;
+    private int added;
+    private boolean flip;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        text = new PropertiesGenerator(entries).entries(entries).generate();
+        keys = Properties.loadProperties(new StringReader(text)).keySet().toArray(new String[0]);
+        // The same text with a single line added halfway
+        int mid = text.indexOf('\n', text.length() / 2) + 1;
+        changedText = text.substring(0, mid) + "changed.line=1\n" + text.substring(mid);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Properties.loadProperties(new StringReader(text)).storeSnapshot(out);
+        snapshot = out.toByteArray();
+        // The same number of entries spread over many small files
+        dir = Files.createTempDirectory("bench");
+        file = dir.resolve("all.properties");
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        files = new ArrayList<>();
+        for (int i = 0; i < FILES; i++) {
+            Path f = dir.resolve("file" + i + ".properties");
+            String part =
+                    new PropertiesGenerator(entries + i)
+                            .entries(Math.max(entries / FILES, 1))
+                            .generate();
+            Files.write(f, part.getBytes(StandardCharsets.UTF_8));
+            files.add(f);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        for (Path f : files) {
+            Files.delete(f);
+        }
+        Files.delete(file);
+        Files.delete(dir);
+    }
+
+    @Setup(Level.Iteration)
+    public void load() throws IOException {
+        props = Properties.loadProperties(new StringReader(text));
+        lookup = 0;
+        added = 0;
+    }
+
+    // Walks all the keys in a scattered order
+    private String nextKey() {
+        lookup = (lookup + 7919) % keys.length;
+        return keys[lookup];
+    }
+
+    @Benchmark
+    public Properties loadReader() throws IOException {
+        return Properties.loadProperties(new StringReader(text));
+    }
+
+    @Benchmark
+    public Properties loadSnapshot() throws IOException {
+        Properties p = new Properties();
+        p.loadSnapshot(new ByteArrayInputStream(snapshot));
+        return p;
+    }
+
+    @Benchmark
+    public Properties loadMapped() throws IOException {
+        Properties p = new Properties();
+        p.loadMapped(file);
+        return p;
+    }
+
+    @Benchmark
+    public Properties loadParallel() throws IOException {
+        Properties p = new Properties();
+        p.loadParallel(file);
+        return p;
+    }
+
+    @Benchmark
+    public Map<Path, Properties> loadAll() throws IOException {
+        return Properties.loadAll(files);
+    }
+
+    @Benchmark
+    public Map<Path, Properties> loadAllSequential() throws IOException {
+        Map<Path, Properties> result = new LinkedHashMap<>();
+        for (Path f : files) {
+            result.put(f, Properties.loadProperties(f));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Properties loadCompact() throws IOException {
+        Properties p = new Properties();
+        p.loadCompact(new StringReader(text));
+        return p;
+    }
+
+    @Benchmark
+    public Properties loadFiltered() throws IOException {
+        Properties p = new Properties();
+        p.load(new StringReader(text), Properties.keyPrefixFilter(keys[0]));
+        return p;
+    }
+
+    @Benchmark
+    public void pullParse(Blackhole bh) throws IOException {
+        PropertiesParser parser = new PropertiesParser(new StringReader(text));
+        PropertiesParser.Type type;
+        while ((type = parser.next()) != null) {
+            if (type == PropertiesParser.Type.VALUE) {
+                bh.consume(parser.getText().length());
+            }
+        }
+    }
+
+    @Benchmark
+    public Properties reloadOneLineChanged() throws IOException {
+        flip = !flip;
+        props.reload(new StringReader(flip ? changedText : text));
+        return props;
+    }
+
+    @Benchmark
+    public String getProperty() {
+        return props.getProperty(nextKey());
+    }
+
+    @Benchmark
+    public String getPropertyMissing() {
+        return props.getProperty("missing.key", "default");
+    }
+
+    @Benchmark
+    public List<String> keysWithPrefix() {
+        String key = nextKey();
+        return props.keysWithPrefix(key.substring(0, key.indexOf('.') + 1));
+    }
+
+    @Benchmark
+    public String putExisting() {
+        return props.put(nextKey(), "updated");
+    }
+
+    @Benchmark
+    public String putNew() {
+        return props.put("new.entry" + added++, "added");
+    }
+
+    @Benchmark
+    public String removeAndPut() {
+        String key = nextKey();
+        String old = props.remove(key);
+        props.put(key, old);
+        return old;
+    }
+
+    @Benchmark
+    public List<String> setComment() {
+        flip = !flip;
+        return props.setComment(nextKey(), flip ? COMMENT_A : COMMENT_B);
+    }
+
+    @Benchmark
+    public void store(Blackhole bh) throws IOException {
+        props.store(new BlackholeWriter(bh), false);
+    }
+
+    @Benchmark
+    public void storeEncodeUnicode(Blackhole bh) throws IOException {
+        props.store(new BlackholeWriter(bh), true);
+    }
+
+    /** A <code>Writer</code> that hands everything it receives to a <code>Blackhole</code>. */
+    static class BlackholeWriter extends Writer {
+        private final Blackhole bh;
+
+        BlackholeWriter(Blackhole bh) {
+            this.bh = bh;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            bh.consume(cbuf);
+            bh.consume(len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            bh.consume(str);
+            bh.consume(len);
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    }
+}
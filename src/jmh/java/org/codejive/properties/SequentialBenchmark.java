@@ -0,0 +1,69 @@
+package org.codejive.properties;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Baselines for the bulk operations in <code>BulkBenchmark</code>, doing the same work one entry at
+ * a time. These get slow quickly on large inputs so they only run on the smaller sizes. Just like
+ * there each call works on a fresh copy that is made before the call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SequentialBenchmark {
+    @Param({"100", "10000"})
+    int entries;
+
+    private Map<String, String> overrides;
+    private List<String> removals;
+    private Properties props;
+    private Properties target;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        String text = new PropertiesGenerator(entries).entries(entries).generate();
+        props = Properties.loadProperties(new StringReader(text));
+        String[] keys = props.keySet().toArray(new String[0]);
+        // Half of them replace existing values, the other half are new
+        overrides = new LinkedHashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            overrides.put(i % 2 == 0 ? keys[i] : "override.key" + i, "override");
+        }
+        // Every other key gets removed
+        removals = new ArrayList<>();
+        for (int i = 0; i < keys.length; i += 2) {
+            removals.add(keys[i]);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void copy() {
+        target = props.copy();
+    }
+
+    @Benchmark
+    public Properties putAllSequential() {
+        for (Map.Entry<String, String> entry : overrides.entrySet()) {
+            target.put(entry.getKey(), entry.getValue());
+        }
+        return target;
+    }
+
+    @Benchmark
+    public Properties removeAllSequential() {
+        for (String key : removals) {
+            target.remove(key);
+        }
+        return target;
+    }
+}
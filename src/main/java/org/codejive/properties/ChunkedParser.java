@@ -0,0 +1,187 @@
+package org.codejive.properties;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Parses a single large file using several threads. The file is split into chunks at line
+ * boundaries and each chunk is parsed in parallel, after which the resulting token lists are
+ * joined together in order.
+ *
+ * <p>A line boundary is not always a token boundary: a line ending in a backslash continues on the
+ * next line and a key without a separator runs on into the next line as well. Such a chunk, parsed
+ * on its own, doesn't end with a line of whitespace, which is how the parser always ends a line
+ * that doesn't continue. When that happens the chunk gets parsed again together with the chunks
+ * following it, until the combined chunk ends cleanly, and the tokens of those following chunks
+ * are discarded. Parsing a chunk that starts at a clean boundary always results in exactly the
+ * same tokens as parsing the entire file in one go.
+ *
+ * <p>Splitting at line boundaries only works for encodings where a <code>'\n'</code> byte always
+ * means an actual line feed, which is true for UTF-8, ISO-8859-1 and US-ASCII.
+ */
+class ChunkedParser {
+    // Chunks smaller than this are not worth the overhead
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+    // Chunks must be small enough to be mapped into memory in one go
+    private static final int MAX_CHUNK_SIZE = 1 << 30;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int SCAN_SIZE = 8192;
+
+    private final FileChannel channel;
+    private final Charset charset;
+
+    private ChunkedParser(FileChannel channel, Charset charset) {
+        this.channel = channel;
+        this.charset = charset;
+    }
+
+    // The result of parsing a single chunk
+    private static class Chunk {
+        final long start;
+        final long end;
+        List<PropertiesParser.Token> tokens;
+        IOException error;
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        // Determines if the chunk ends at a boundary where the parser's state was reset
+        boolean isClean() {
+            return tokens != null
+                    && (tokens.isEmpty()
+                            || tokens.get(tokens.size() - 1).type
+                                    == PropertiesParser.Type.WHITESPACE);
+        }
+    }
+
+    /**
+     * Determines if files in the given encoding can be split at line boundaries.
+     *
+     * @param charset the encoding of the file
+     * @return <code>true</code> if the file can be parsed using <code>parse()</code>
+     */
+    static boolean supports(Charset charset) {
+        return charset.equals(StandardCharsets.UTF_8)
+                || charset.equals(StandardCharsets.ISO_8859_1)
+                || charset.equals(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Parses the given file in parallel, using the common fork-join pool, and returns all of its
+     * tokens in order.
+     *
+     * @param channel the file to parse
+     * @param charset the encoding of the file
+     * @return a list of <code>Token</code>s
+     * @throws IOException Thrown when any IO error occurs during parsing
+     */
+    static List<PropertiesParser.Token> parse(FileChannel channel, Charset charset)
+            throws IOException {
+        return new ChunkedParser(channel, charset).parse();
+    }
+
+    private List<PropertiesParser.Token> parse() throws IOException {
+        Chunk[] chunks = split();
+        IntStream.range(0, chunks.length)
+                .parallel()
+                .forEach(
+                        i -> {
+                            try {
+                                chunks[i].tokens = tokens(chunks[i].start, chunks[i].end);
+                            } catch (IOException e) {
+                                chunks[i].error = e;
+                            }
+                        });
+
+        List<PropertiesParser.Token> result = new ArrayList<>();
+        int i = 0;
+        while (i < chunks.length) {
+            // The current chunk always starts at a clean boundary here
+            Chunk chunk = chunks[i];
+            if (chunk.error != null) {
+                throw chunk.error;
+            }
+            int last = i;
+            int step = 1;
+            while (!chunk.isClean() && last < chunks.length - 1) {
+                // Try again including the next chunk(s), doubling their number every
+                // time to keep the worst case (a file that's one long line) linear
+                last = Math.min(last + step, chunks.length - 1);
+                step *= 2;
+                chunk = new Chunk(chunks[i].start, chunks[last].end);
+                chunk.tokens = tokens(chunk.start, chunk.end);
+            }
+            result.addAll(chunk.tokens);
+            i = last + 1;
+        }
+        return result;
+    }
+
+    // Divides the file into chunks that each end right after a line feed
+    private Chunk[] split() throws IOException {
+        long size = channel.size();
+        int threads = ForkJoinPool.getCommonPoolParallelism();
+        long count =
+                Math.max(
+                        Math.min(threads * CHUNKS_PER_THREAD, size / MIN_CHUNK_SIZE),
+                        (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+        List<Chunk> chunks = new ArrayList<>();
+        long start = 0;
+        for (long n = 1; n < count; n++) {
+            long end = nextLine(Math.max(size * n / count, start));
+            if (end < 0) {
+                break;
+            }
+            if (end > start) {
+                chunks.add(new Chunk(start, end));
+                start = end;
+            }
+        }
+        chunks.add(new Chunk(start, size));
+        return chunks.toArray(new Chunk[0]);
+    }
+
+    // Returns the position right after the first line feed at or after the given position that
+    // isn't preceded by a backslash, or -1 if there is none
+    private long nextLine(long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(SCAN_SIZE);
+        byte prev = 0;
+        long p = pos;
+        while (channel.read(buf, p) > 0) {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                byte ch = buf.get();
+                p++;
+                if (ch == '\n' && prev != '\\') {
+                    return p;
+                }
+                prev = ch;
+            }
+            buf.clear();
+        }
+        return -1;
+    }
+
+    private List<PropertiesParser.Token> tokens(long start, long end) throws IOException {
+        if (end - start > Integer.MAX_VALUE) {
+            throw new IOException("File contains a line that is too long to process");
+        }
+        ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        PropertiesParser parser = new PropertiesParser(bytes, charset);
+        List<PropertiesParser.Token> result = new ArrayList<>();
+        PropertiesParser.Token token;
+        while ((token = parser.nextToken()) != null) {
+            result.add(token);
+        }
+        return result;
+    }
+}
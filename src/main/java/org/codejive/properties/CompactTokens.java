@@ -0,0 +1,327 @@
+package org.codejive.properties;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A read-only, compact representation of the tokens of a properties file. Instead of keeping a
+ * <code>Token</code> object, with its own strings, for each token it keeps the text of all tokens
+ * in a single byte array and only stores the type and start position of each token. Strings are
+ * only created when a value is actually looked up.
+ *
+ * <p>Token <code>i</code> covers the bytes from <code>starts[i]</code> up to <code>starts[i + 1]
+ * </code>, each byte holding a single ISO-8859-1 character. The few tokens that contain characters
+ * outside of that range don't take up any bytes, their text is kept as a separate string instead.
+ * Values are found using an open addressing hash table containing the positions of the <code>VALUE
+ * </code> tokens, their keys always being the <code>KEY</code> token two positions before them.
+ */
+class CompactTokens {
+    private static final int TYPE_MASK = 0x0F;
+    // Set in a token's type when it contains escape sequences
+    private static final int ESCAPED = 0x80;
+    // Set in a token's type when its text is kept as a separate string
+    private static final int WIDE = 0x40;
+    private static final PropertiesParser.Type[] TYPES = PropertiesParser.Type.values();
+
+    private final byte[] bytes;
+    private final int[] starts;
+    private final byte[] types;
+    private final int count;
+    // The positions of the wide tokens, in order, and their text
+    private final int[] wideTokens;
+    private final String[] wideRaws;
+    // The position of a VALUE token plus one, zero for empty slots
+    private final int[] index;
+    private final int size;
+
+    private CompactTokens(
+            byte[] bytes,
+            int[] starts,
+            byte[] types,
+            int count,
+            int[] wideTokens,
+            String[] wideRaws,
+            int size) {
+        this.bytes = bytes;
+        this.starts = starts;
+        this.types = types;
+        this.count = count;
+        this.wideTokens = wideTokens;
+        this.wideRaws = wideRaws;
+        this.index = new int[Math.max(Integer.highestOneBit(Math.max(size, 1)) * 4, 4)];
+        this.size = size;
+    }
+
+    /**
+     * Parses the given text into its compact representation.
+     *
+     * @param text the text to parse
+     * @return a <code>CompactTokens</code> object or <code>null</code> if the text contains
+     *     duplicate keys, which can't be represented
+     * @throws IOException Thrown when the text couldn't be parsed
+     */
+    static CompactTokens parse(String text) throws IOException {
+        PropertiesParser parser = new PropertiesParser(new StringReader(text));
+        byte[] bytes = new byte[text.length()];
+        int[] starts = new int[64];
+        byte[] types = new byte[64];
+        int[] wideTokens = new int[0];
+        String[] wideRaws = new String[0];
+        int count = 0;
+        int wideCount = 0;
+        int values = 0;
+        // The current position in the text and in the bytes
+        int pos = 0;
+        int bpos = 0;
+        PropertiesParser.Type type;
+        while ((type = parser.next()) != null) {
+            if (count + 1 >= starts.length) {
+                starts = Arrays.copyOf(starts, starts.length * 2);
+                types = Arrays.copyOf(types, types.length * 2);
+            }
+            int len = parser.getRaw().length();
+            int flags = type.ordinal() | (parser.hasEscapes() ? ESCAPED : 0);
+            starts[count] = bpos;
+            int i = 0;
+            while (i < len) {
+                char ch = text.charAt(pos + i);
+                if (ch > 0xFF) {
+                    break;
+                }
+                bytes[bpos + i] = (byte) ch;
+                i++;
+            }
+            if (i < len) {
+                if (wideCount == wideTokens.length) {
+                    wideTokens = Arrays.copyOf(wideTokens, Math.max(wideCount * 2, 16));
+                    wideRaws = Arrays.copyOf(wideRaws, wideTokens.length);
+                }
+                wideTokens[wideCount] = count;
+                wideRaws[wideCount] = text.substring(pos, pos + len);
+                wideCount++;
+                flags |= WIDE;
+            } else {
+                bpos += len;
+            }
+            types[count] = (byte) flags;
+            count++;
+            pos += len;
+            if (type == PropertiesParser.Type.VALUE) {
+                values++;
+            }
+        }
+        starts[count] = bpos;
+
+        CompactTokens result =
+                new CompactTokens(
+                        Arrays.copyOf(bytes, bpos),
+                        Arrays.copyOf(starts, count + 1),
+                        Arrays.copyOf(types, count),
+                        count,
+                        Arrays.copyOf(wideTokens, wideCount),
+                        Arrays.copyOf(wideRaws, wideCount),
+                        values);
+        for (int i = 0; i < count; i++) {
+            if (result.type(i) == PropertiesParser.Type.VALUE && !result.insert(i)) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    // Adds the value at the given position to the index, returns false if its key already exists
+    private boolean insert(int value) {
+        int key = value - 2;
+        String keyText = isPlain(key) ? null : text(key);
+        int hash = keyText != null ? keyText.hashCode() : hash(key);
+        int mask = index.length - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int found = index[slot] - 1;
+            if (found < 0) {
+                index[slot] = value + 1;
+                return true;
+            }
+            boolean same =
+                    keyText != null ? keyEquals(found - 2, keyText) : keysEqual(key, found - 2);
+            if (same) {
+                return false;
+            }
+        }
+    }
+
+    // Returns the position of the value for the given key or -1 if it doesn't exist
+    private int find(String key) {
+        int mask = index.length - 1;
+        for (int slot = mix(key.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            int found = index[slot] - 1;
+            if (found < 0) {
+                return -1;
+            }
+            if (keyEquals(found - 2, key)) {
+                return found;
+            }
+        }
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    // Calculates the same hash as String.hashCode() would for the text of a plain token
+    private int hash(int token) {
+        int h = 0;
+        for (int i = starts[token]; i < starts[token + 1]; i++) {
+            h = 31 * h + (bytes[i] & 0xFF);
+        }
+        return h;
+    }
+
+    private boolean keyEquals(int token, String key) {
+        if (!isPlain(token)) {
+            return text(token).equals(key);
+        }
+        int start = starts[token];
+        int len = starts[token + 1] - start;
+        if (len != key.length()) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if ((bytes[start + i] & 0xFF) != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Compares the text of a plain token to that of any other token
+    private boolean keysEqual(int plain, int token) {
+        if (!isPlain(token)) {
+            return keyEquals(plain, text(token));
+        }
+        int start1 = starts[plain];
+        int start2 = starts[token];
+        int len = starts[plain + 1] - start1;
+        if (len != starts[token + 1] - start2) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (bytes[start1 + i] != bytes[start2 + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Determines if the token's text is simply its bytes
+    private boolean isPlain(int token) {
+        return (types[token] & (ESCAPED | WIDE)) == 0;
+    }
+
+    private boolean isEscaped(int token) {
+        return (types[token] & ESCAPED) != 0;
+    }
+
+    private PropertiesParser.Type type(int token) {
+        return TYPES[types[token] & TYPE_MASK];
+    }
+
+    private String raw(int token) {
+        if ((types[token] & WIDE) != 0) {
+            return wideRaws[Arrays.binarySearch(wideTokens, token)];
+        }
+        int start = starts[token];
+        return new String(bytes, start, starts[token + 1] - start, StandardCharsets.ISO_8859_1);
+    }
+
+    private String text(int token) {
+        String raw = raw(token);
+        return isEscaped(token) ? PropertiesParser.unescape(raw) : raw;
+    }
+
+    /**
+     * Returns the number of key-value pairs.
+     *
+     * @return the number of properties
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of tokens.
+     *
+     * @return the number of tokens
+     */
+    int tokenCount() {
+        return count;
+    }
+
+    /**
+     * Creates a <code>Token</code> object for the token at the given position.
+     *
+     * @param token the position of the token
+     * @return a <code>Token</code>
+     */
+    PropertiesParser.Token token(int token) {
+        PropertiesParser.Type type = type(token);
+        String raw = raw(token);
+        return isEscaped(token)
+                ? PropertiesParser.Token.escaped(type, raw)
+                : PropertiesParser.pooled(type, raw);
+    }
+
+    /**
+     * Returns the (unescaped) value for the given key.
+     *
+     * @param key the key to look up
+     * @return the value or <code>null</code> if the key doesn't exist
+     */
+    String get(String key) {
+        int value = find(key);
+        return value >= 0 ? text(value) : null;
+    }
+
+    /**
+     * Returns the raw value for the given key.
+     *
+     * @param key the (unescaped) key to look up
+     * @return the raw value or <code>null</code> if the key doesn't exist
+     */
+    String getRaw(String key) {
+        int value = find(key);
+        return value >= 0 ? raw(value) : null;
+    }
+
+    /**
+     * Determines if a value exists for the given key.
+     *
+     * @param key the (unescaped) key to look up
+     * @return <code>true</code> if the key exists
+     */
+    boolean containsKey(String key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Returns the entire input the tokens were parsed from.
+     *
+     * @return the input text
+     */
+    String text() {
+        if (wideTokens.length == 0) {
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+        StringBuilder sb = new StringBuilder(bytes.length + wideTokens.length * 16);
+        int start = 0;
+        for (int i = 0; i < wideTokens.length; i++) {
+            int end = starts[wideTokens[i]];
+            sb.append(new String(bytes, start, end - start, StandardCharsets.ISO_8859_1));
+            sb.append(wideRaws[i]);
+            start = end;
+        }
+        sb.append(new String(bytes, start, bytes.length - start, StandardCharsets.ISO_8859_1));
+        return sb.toString();
+    }
+}
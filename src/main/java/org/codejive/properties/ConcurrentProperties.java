@@ -0,0 +1,482 @@
+package org.codejive.properties;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A thread-safe variant of <code>Properties</code>. All reads are performed without any locking on
+ * an immutable snapshot of the properties, which gets replaced as a whole each time the properties
+ * are changed. Writers serialize among themselves, each change is made to a copy of the current
+ * snapshot, which is then published for all readers to see. This means that readers never see a
+ * partially applied change and they never have to wait for a writer.
+ *
+ * <p>Because every change copies the current state, making many changes one by one can be slow. In
+ * that case use <code>update()</code> to apply all of them in one go:
+ *
+ * <pre>
+ * props.update(p -&gt; {
+ *     p.put("host", "example.com");
+ *     p.setComment("host", "The remote host");
+ * });
+ * </pre>
+ *
+ * <p>The format preserving behavior is exactly the same as that of <code>Properties</code>. If the
+ * properties have defaults those are consulted as well, but they are not protected in any way, so
+ * they should not be modified while being shared between threads.
+ */
+public class ConcurrentProperties extends AbstractMap<String, String> {
+    private volatile Properties snapshot;
+    private final Object writeLock = new Object();
+
+    public ConcurrentProperties() {
+        this(new Properties());
+    }
+
+    /**
+     * Creates a new object with the same contents as the given properties (including its
+     * defaults). The original is copied, changes to it will not be reflected in this object.
+     *
+     * @param props the properties to copy
+     */
+    public ConcurrentProperties(Properties props) {
+        snapshot = publishable(props.copy());
+    }
+
+    /**
+     * Returns a copy of the current state of the properties. The result is not thread-safe, but
+     * it's independent of this object so it can be used and changed freely.
+     *
+     * @return a <code>Properties</code> object
+     */
+    public Properties snapshot() {
+        return snapshot.copy();
+    }
+
+    /**
+     * Applies any number of changes to the properties as a single atomic update. Readers will see
+     * either none or all of the changes. The <code>Properties</code> passed to the updater should
+     * not be used anymore once it returns.
+     *
+     * @param updater code that makes changes to the given <code>Properties</code>
+     */
+    public void update(Consumer<? super Properties> updater) {
+        write(p -> {
+            updater.accept(p);
+            return null;
+        });
+    }
+
+    /**
+     * Searches for the property with the specified key in this property list. If the key is not
+     * found in this property list, the default property list, and its defaults, recursively, are
+     * then checked. The method returns null if the property is not found.
+     *
+     * @param key the key to look up.
+     * @return the value in this property list with the specified key value or <code>null</code>.
+     */
+    public String getProperty(String key) {
+        return snapshot.getProperty(key);
+    }
+
+    /**
+     * Searches for the property with the specified key in this property list. If the key is not
+     * found in this property list, the default property list, and its defaults, recursively, are
+     * then checked. The method returns the default value argument if the property is not found.
+     *
+     * @param key          the key to look up.
+     * @param defaultValue the value to return if no mapping was found for the key.
+     * @return the value in this property list with the specified key value or the value of <code>
+     * defaultValue</code>.
+     */
+    public String getProperty(String key, String defaultValue) {
+        return snapshot.getProperty(key, defaultValue);
+    }
+
+    /**
+     * Searches for the property with the specified key in this property list. If the key is not
+     * found in this property list, the default property list, and its defaults, recursively, are
+     * then checked. The method returns the property's comments or an empty list if the property is
+     * not found.
+     *
+     * @param key the key to look up.
+     * @return the comments for the indicated property or an empty list.
+     */
+    public List<String> getPropertyComment(String key) {
+        return snapshot.getPropertyComment(key);
+    }
+
+    /**
+     * Returns the keys that start with the given prefix, in sorted order. The keys in the default
+     * property list are not included.
+     *
+     * @param prefix the prefix of the keys to return
+     * @return an unmodifiable list of keys
+     */
+    public List<String> keysWithPrefix(String prefix) {
+        return snapshot.keysWithPrefix(prefix);
+    }
+
+    /**
+     * Returns the number of keys that start with the given prefix. The keys in the default
+     * property list are not included.
+     *
+     * @param prefix the prefix of the keys to count
+     * @return the number of keys
+     */
+    public int countWithPrefix(String prefix) {
+        return snapshot.countWithPrefix(prefix);
+    }
+
+    /**
+     * Returns a new property list containing all properties whose keys start with the given
+     * prefix, with that prefix removed from their keys.
+     *
+     * @param prefix the prefix of the properties to return
+     * @return a <code>Properties</code> object
+     * @see Properties#subProperties(String)
+     */
+    public Properties subProperties(String prefix) {
+        return snapshot.subProperties(prefix);
+    }
+
+    /**
+     * Associates the specified value with the specified key in this properties table. If the
+     * properties previously contained a mapping for the key, the old value is replaced. If any
+     * comment lines are supplied they will be prepended to the property.
+     *
+     * @param key     key with which the specified value is to be associated
+     * @param value   value to be associated with the specified key
+     * @param comment comment lines to be associated with the specified key
+     * @return the previous value associated with key, or null if there was no mapping for key
+     */
+    public String setProperty(String key, String value, String... comment) {
+        return putCommented(key, value, comment);
+    }
+
+    @Override
+    public String get(Object key) {
+        return snapshot.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return snapshot.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return snapshot.size();
+    }
+
+    /**
+     * Works like <code>get()</code> but returns the raw value associated with the given raw key.
+     * This means that the value won't be unescaped before being returned.
+     *
+     * @param rawKey The key, in raw format, to look up
+     * @return A raw value or <code>null</code> if the key wasn't found
+     */
+    public String getRaw(String rawKey) {
+        return snapshot.getRaw(rawKey);
+    }
+
+    /**
+     * Gather all the comments directly before the given key and return them as a list. The list
+     * will only contain those lines that immediately follow one another, once a non-comment line is
+     * encountered gathering will stop. The returned values will include the comment character that
+     * the line started with in the original input.
+     *
+     * @param key The key to look for
+     * @return A list of comment strings or an empty list if no comments lines were found or the key
+     * doesn't exist.
+     */
+    public List<String> getComment(String key) {
+        return snapshot.getComment(key);
+    }
+
+    @Override
+    public String put(String key, String value) {
+        return write(p -> p.put(key, value));
+    }
+
+    /**
+     * Associates the specified value with the specified key in this properties table. If the
+     * properties previously contained a mapping for the key, the old value is replaced. If any
+     * comment lines are supplied they will be prepended to the property.
+     *
+     * @param key     key with which the specified value is to be associated
+     * @param value   value to be associated with the specified key
+     * @param comment comment lines to be associated with the specified key
+     * @return the previous value associated with key, or null if there was no mapping for key
+     */
+    public String putCommented(String key, String value, String... comment) {
+        return write(p -> p.putCommented(key, value, comment));
+    }
+
+    /**
+     * Works like <code>put()</code> but uses raw values for keys and values. This means these keys
+     * and values will not be escaped before being stored.
+     *
+     * @param rawKey   key with which the specified value is to be associated
+     * @param rawValue value to be associated with the specified key
+     * @return the previous value associated with key, or null if there was no mapping for key.
+     */
+    public String putRaw(String rawKey, String rawValue) {
+        return write(p -> p.putRaw(rawKey, rawValue));
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends String> m) {
+        update(p -> p.putAll(m));
+    }
+
+    @Override
+    public String remove(Object key) {
+        return write(p -> p.containsKey(key) ? p.remove(key) : null);
+    }
+
+    @Override
+    public void clear() {
+        update(Properties::clear);
+    }
+
+    /**
+     * Removes all the given keys, and the comments attached to them, in a single change.
+     *
+     * @param keys the keys to remove
+     * @return <code>true</code> if any properties were removed
+     * @see Properties#removeAll(Collection)
+     */
+    public boolean removeAll(Collection<String> keys) {
+        return write(p -> p.removeAll(keys));
+    }
+
+    /**
+     * Adds the given comments to the item indicated by the given key. Each comment will be put on a
+     * separate line.
+     *
+     * @param key      The key to look for
+     * @param comments The comments to add to the item
+     * @return The previous list of comments, if any
+     * @throws NoSuchElementException Thrown when they key couldn't be found
+     * @see Properties#setComment(String, String...)
+     */
+    public List<String> setComment(String key, String... comments) {
+        return setComment(key, Arrays.asList(comments));
+    }
+
+    /**
+     * Adds the list of comments to the item indicated by the given key. Each comment will be put on
+     * a separate line.
+     *
+     * @param key      The key to look for
+     * @param comments The list of comments to add to the item
+     * @return The previous list of comments, if any
+     * @throws NoSuchElementException Thrown when they key couldn't be found
+     * @see Properties#setComment(String, List)
+     */
+    public List<String> setComment(String key, List<String> comments) {
+        return write(p -> p.setComment(key, comments));
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                // Iterates over the snapshot that was current when the iteration started
+                return new Iterator<Entry<String, String>>() {
+                    private final Iterator<Entry<String, String>> iter =
+                            snapshot.entrySet().iterator();
+                    private Entry<String, String> currentEntry;
+
+                    @Override
+                    public boolean hasNext() {
+                        return iter.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        Entry<String, String> e = iter.next();
+                        currentEntry = new SimpleImmutableEntry<>(e.getKey(), e.getValue());
+                        return currentEntry;
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (currentEntry == null) {
+                            throw new IllegalStateException();
+                        }
+                        ConcurrentProperties.this.remove(currentEntry.getKey());
+                        currentEntry = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return snapshot.size();
+            }
+
+            @Override
+            public boolean removeIf(Predicate<? super Entry<String, String>> filter) {
+                Objects.requireNonNull(filter);
+                // Don't let the filter see the mutable entries of the copy
+                Predicate<Entry<String, String>> test =
+                        e -> filter.test(new SimpleImmutableEntry<>(e.getKey(), e.getValue()));
+                return write(p -> p.entrySet().removeIf(test));
+            }
+
+            @Override
+            public boolean removeAll(Collection<?> c) {
+                Objects.requireNonNull(c);
+                return removeIf(c::contains);
+            }
+
+            @Override
+            public boolean retainAll(Collection<?> c) {
+                Objects.requireNonNull(c);
+                return removeIf(e -> !c.contains(e));
+            }
+        };
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                Iterator<Entry<String, String>> iter = entrySet().iterator();
+                return new Iterator<String>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iter.hasNext();
+                    }
+
+                    @Override
+                    public String next() {
+                        return iter.next().getKey();
+                    }
+
+                    @Override
+                    public void remove() {
+                        iter.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return snapshot.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public boolean removeIf(Predicate<? super String> filter) {
+                Objects.requireNonNull(filter);
+                return write(p -> p.keySet().removeIf(filter));
+            }
+
+            @Override
+            public boolean removeAll(Collection<?> c) {
+                Objects.requireNonNull(c);
+                return removeIf(c::contains);
+            }
+
+            @Override
+            public boolean retainAll(Collection<?> c) {
+                Objects.requireNonNull(c);
+                return removeIf(k -> !c.contains(k));
+            }
+
+            @Override
+            public void clear() {
+                ConcurrentProperties.this.clear();
+            }
+        };
+    }
+
+    /**
+     * Loads the contents from the given file and replaces the current contents of this object
+     * with it. This includes not only properties but also all whitespace and any comments that are
+     * encountered.
+     *
+     * @param file a path to the file to load
+     * @throws IOException Thrown when any IO error occurs during loading
+     */
+    public void load(Path file) throws IOException {
+        Properties next = snapshot.emptyCopy();
+        next.load(file);
+        publish(next);
+    }
+
+    /**
+     * Loads the contents from the reader and replaces the current contents of this object with it.
+     * This includes not only properties but also all whitespace and any comments that are
+     * encountered.
+     *
+     * @param reader a <code>Reader</code> object
+     * @throws IOException Thrown when any IO error occurs during loading
+     */
+    public void load(Reader reader) throws IOException {
+        Properties next = snapshot.emptyCopy();
+        next.load(reader);
+        publish(next);
+    }
+
+    /**
+     * Stores the contents of this object to the given file.
+     *
+     * @param file    a path to the file to write
+     * @param comment comment lines to be written at the start of the output
+     * @throws IOException Thrown when any IO error occurs during operation
+     */
+    public void store(Path file, String... comment) throws IOException {
+        snapshot.store(file, comment);
+    }
+
+    /**
+     * Stores the contents of this object to the given writer.
+     *
+     * @param writer  a <code>Writer</code> object
+     * @param comment comment lines to be written at the start of the output
+     * @throws IOException Thrown when any IO error occurs during operation
+     */
+    public void store(Writer writer, String... comment) throws IOException {
+        snapshot.store(writer, comment);
+    }
+
+    @Override
+    public String toString() {
+        return snapshot.toString();
+    }
+
+    private <T> T write(Function<Properties, T> change) {
+        synchronized (writeLock) {
+            Properties next = snapshot.copy();
+            T result = change.apply(next);
+            snapshot = publishable(next);
+            return result;
+        }
+    }
+
+    // Loading happens outside of the lock, only publishing the result needs it
+    private void publish(Properties next) {
+        next.prepareForSharing();
+        synchronized (writeLock) {
+            snapshot = next;
+        }
+    }
+
+    private static Properties publishable(Properties props) {
+        props.prepareForSharing();
+        return props;
+    }
+}
@@ -3,16 +3,22 @@ package org.codejive.properties;
 import static org.codejive.properties.PropertiesParser.unescape;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * This class is a replacement for <code>java.util.Properties</code>, with the difference that it
@@ -22,18 +28,183 @@ import java.util.stream.IntStream;
  * properties.
  */
 public class Properties extends AbstractMap<String, String> {
-    private final LinkedHashMap<String, String> values;
-    private final List<PropertiesParser.Token> tokens;
+    // Holds the VALUE tokens so their text only gets unescaped when it's actually needed
+    private final LinkedHashMap<String, PropertiesParser.Token> values;
+    private final TokenList tokens;
     private final Properties defaults;
+    // Only set once this object is used as the defaults of another. Incremented whenever
+    // this object or any of its own defaults change, so a single check of this number
+    // tells the others if anything they inherit has changed, however long the chain is
+    private TokenList.SharedVersion chainVersion;
+
+    // Cached result of flattening this object and its defaults, only valid as
+    // long as the versions of this object and of the defaults are still the same
+    private Properties flattened;
+    private long flattenedVersion;
+    // Cached index of all the values inherited from the defaults
+    private Inherited inherited;
+    // Cached sorted list of all keys, for looking up keys by prefix
+    private KeyIndex keyIndex;
+    // Holds the contents instead of tokens and values after loadCompact(), until
+    // anything is done that can't be done directly on the compact form
+    private CompactTokens compact;
+    // Only created once the first listener gets added, so without any
+    // listeners changes don't have to do any extra work
+    private List<PropertiesListener> listeners;
+    private List<PropertiesEvent> pendingEvents;
+    private int batchDepth;
+
+    // Maps each key to the value of the nearest of the defaults that has it. Immutable,
+    // so it can be replaced safely while others are still using it, or shared by copies
+    private static class Inherited {
+        final HashMap<String, PropertiesParser.Token> values;
+        final long version;
+
+        Inherited(HashMap<String, PropertiesParser.Token> values, long version) {
+            this.values = values;
+            this.version = version;
+        }
+    }
+
+    // All keys in sorted order. Immutable as well, so it can be built lazily
+    // even when the object is being shared between threads
+    private static class KeyIndex {
+        final String[] keys;
+        final long version;
+
+        KeyIndex(String[] keys, long version) {
+            this.keys = keys;
+            this.version = version;
+        }
+    }
 
     public Properties() {
         this(null);
     }
 
     public Properties(Properties defaults) {
+        this(defaults, new LinkedHashMap<>(), new TokenList());
+    }
+
+    private Properties(
+            Properties defaults,
+            LinkedHashMap<String, PropertiesParser.Token> values,
+            TokenList tokens) {
         this.defaults = defaults;
-        values = new LinkedHashMap<>();
-        tokens = new ArrayList<>();
+        this.values = values;
+        this.tokens = tokens;
+        if (defaults != null) {
+            defaults.trackChain();
+        }
+    }
+
+    // Makes sure the chain version exists and gets updated by changes to this object
+    // and to all of its defaults
+    private void trackChain() {
+        if (chainVersion == null) {
+            chainVersion = new TokenList.SharedVersion();
+            for (Properties p = this; p != null; p = p.defaults) {
+                p.tokens.share(chainVersion);
+            }
+        }
+    }
+
+    /**
+     * Returns an independent copy of this object that shares its defaults. Changes to one of them
+     * will not affect the other.
+     *
+     * @return a <code>Properties</code> object
+     */
+    Properties copy() {
+        Properties result =
+                new Properties(defaults, new LinkedHashMap<>(values), new TokenList(tokens));
+        // The compact form and the inherited values are immutable, so they can be shared
+        result.compact = compact;
+        result.inherited = inherited;
+        return result;
+    }
+
+    /**
+     * Returns a new, empty, object that has the same defaults as this one.
+     *
+     * @return a <code>Properties</code> object
+     */
+    Properties emptyCopy() {
+        return new Properties(defaults);
+    }
+
+    /**
+     * Makes sure that all further lookups on this object are pure reads, as long as it isn't
+     * modified, so it can be shared safely between threads.
+     */
+    void prepareForSharing() {
+        for (Properties p = this; p != null; p = p.defaults) {
+            p.inflate();
+            p.tokens.reindex();
+        }
+        if (defaults != null) {
+            inherited();
+        }
+    }
+
+    /**
+     * Adds a listener that will be notified of all changes made to the properties, comments
+     * included. Loading does not result in any notifications.
+     *
+     * @param listener The listener to add
+     */
+    public void addListener(PropertiesListener listener) {
+        if (listeners == null) {
+            listeners = new ArrayList<>();
+            pendingEvents = new ArrayList<>();
+        }
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener that was previously added.
+     *
+     * @param listener The listener to remove
+     */
+    public void removeListener(PropertiesListener listener) {
+        if (listeners != null) {
+            listeners.remove(listener);
+            if (listeners.isEmpty() && batchDepth == 0) {
+                listeners = null;
+                pendingEvents = null;
+            }
+        }
+    }
+
+    /**
+     * Performs the given changes as a single batch. Listeners will receive one notification with
+     * the events for all the changes once the batch has finished, instead of one notification per
+     * change. Batches can be nested, notification happens when the outermost one finishes.
+     *
+     * @param changes The code making the changes
+     */
+    public void batch(Runnable changes) {
+        batchDepth++;
+        try {
+            changes.run();
+        } finally {
+            batchDepth--;
+            fireEvents();
+        }
+    }
+
+    private void event(PropertiesEvent event) {
+        pendingEvents.add(event);
+    }
+
+    private void fireEvents() {
+        if (batchDepth == 0 && listeners != null && !pendingEvents.isEmpty()) {
+            List<PropertiesEvent> events = Collections.unmodifiableList(pendingEvents);
+            pendingEvents = new ArrayList<>();
+            for (PropertiesListener listener : new ArrayList<>(listeners)) {
+                listener.propertiesChanged(events);
+            }
+        }
     }
 
     /**
@@ -59,13 +230,38 @@ public class Properties extends AbstractMap<String, String> {
      * defaultValue</code>.
      */
     public String getProperty(String key, String defaultValue) {
-        if (containsKey(key)) {
-            return get(key);
-        } else if (defaults != null) {
-            return defaults.getProperty(key, defaultValue);
-        } else {
-            return defaultValue;
+        String value = compact != null ? compact.get(key) : textOf(values.get(key));
+        if (value == null && defaults != null) {
+            value = textOf(inherited().get(key));
+        }
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Returns the values inherited from the defaults, rebuilding the index only when any of the
+     * defaults have changed since the last time. Checking for that only takes a look at the chain
+     * version of the defaults, no matter how many defaults there are. Changes to other objects
+     * that use the same defaults don't affect it.
+     */
+    Map<String, PropertiesParser.Token> inherited() {
+        Inherited result = inherited;
+        if (result == null || result.version != defaults.chainVersion.get()) {
+            List<Properties> chain = new ArrayList<>();
+            for (Properties p = defaults; p != null; p = p.defaults) {
+                // Inflating changes the version, so that has to be done first
+                p.inflate();
+                chain.add(p);
+            }
+            long version = defaults.chainVersion.get();
+            // Starting with the furthest, so the nearer defaults override their values
+            HashMap<String, PropertiesParser.Token> vals = new HashMap<>();
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                vals.putAll(chain.get(i).values);
+            }
+            result = new Inherited(vals, version);
+            inherited = result;
         }
+        return result.values;
     }
 
     /**
@@ -122,7 +318,95 @@ public class Properties extends AbstractMap<String, String> {
      * value are strings, including the keys in the default property list.
      */
     public Set<String> stringPropertyNames() {
-        return Collections.unmodifiableSet(flatten().keySet());
+        return Collections.unmodifiableSet(flattened().keySet());
+    }
+
+    /**
+     * Returns the keys from this property list that start with the given prefix, in sorted order.
+     * The keys in the default property list are not included. The keys are looked up in an index
+     * that is only rebuilt after keys have been added or removed, so repeated lookups only take
+     * time proportional to the logarithm of the number of keys.
+     *
+     * @param prefix the prefix of the keys to return
+     * @return an unmodifiable list of keys
+     */
+    public List<String> keysWithPrefix(String prefix) {
+        String[] keys = sortedKeys();
+        int from = prefixStart(keys, prefix);
+        int to = prefixEnd(keys, from, prefix);
+        return Collections.unmodifiableList(Arrays.asList(keys).subList(from, to));
+    }
+
+    /**
+     * Returns the number of keys in this property list that start with the given prefix. The keys
+     * in the default property list are not included.
+     *
+     * @param prefix the prefix of the keys to count
+     * @return the number of keys
+     */
+    public int countWithPrefix(String prefix) {
+        String[] keys = sortedKeys();
+        int from = prefixStart(keys, prefix);
+        return prefixEnd(keys, from, prefix) - from;
+    }
+
+    /**
+     * Returns a new property list containing all properties whose keys start with the given
+     * prefix, with that prefix removed from their keys. So for the prefix <code>"server.http."
+     * </code> a property <code>server.http.port</code> will be available as <code>port</code>.
+     * The properties are added in sorted order of their keys, together with their comments. If
+     * this property list has defaults the result will have the defaults' sub properties as its
+     * defaults. The result is a copy, later changes to this object will not be reflected in it.
+     *
+     * @param prefix the prefix of the properties to return
+     * @return a <code>Properties</code> object
+     */
+    public Properties subProperties(String prefix) {
+        Properties sub = new Properties(defaults != null ? defaults.subProperties(prefix) : null);
+        for (String key : keysWithPrefix(prefix)) {
+            String subKey = key.substring(prefix.length());
+            sub.put(subKey, get(key));
+            List<String> comment = getComment(key);
+            if (!comment.isEmpty()) {
+                sub.setComment(subKey, comment);
+            }
+        }
+        return sub;
+    }
+
+    private String[] sortedKeys() {
+        inflate();
+        long version = tokens.keysVersion();
+        KeyIndex result = keyIndex;
+        if (result == null || result.version != version) {
+            String[] keys = values.keySet().toArray(new String[0]);
+            Arrays.sort(keys);
+            result = new KeyIndex(keys, version);
+            keyIndex = result;
+        }
+        return result.keys;
+    }
+
+    // Returns the position of the first key that is equal to or comes after the prefix
+    private static int prefixStart(String[] keys, String prefix) {
+        int idx = Arrays.binarySearch(keys, prefix);
+        return idx >= 0 ? idx : -idx - 1;
+    }
+
+    // Returns the position of the first key after start that doesn't start with the prefix,
+    // all keys that do start with it directly follow each other in sorted order
+    private static int prefixEnd(String[] keys, int start, String prefix) {
+        int lo = start;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].startsWith(prefix)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
     }
 
     /**
@@ -132,7 +416,7 @@ public class Properties extends AbstractMap<String, String> {
      */
     public void list(PrintStream out) {
         try {
-            flatten().store(out);
+            flattened().store(out);
         } catch (IOException e) {
             // Ignore any errors
         }
@@ -145,7 +429,7 @@ public class Properties extends AbstractMap<String, String> {
      */
     public void list(PrintWriter out) {
         try {
-            flatten().store(out);
+            flattened().store(out);
         } catch (IOException e) {
             // Ignore any errors
         }
@@ -158,7 +442,7 @@ public class Properties extends AbstractMap<String, String> {
      */
     public void list(PrintStream out, boolean isEncodeUnicode) {
         try {
-            flatten().store(out, isEncodeUnicode);
+            flattened().store(out, isEncodeUnicode);
         } catch (IOException e) {
             // Ignore any errors
         }
@@ -171,7 +455,7 @@ public class Properties extends AbstractMap<String, String> {
      */
     public void list(PrintWriter out, boolean isEncodeUnicode) {
         try {
-            flatten().store(out, isEncodeUnicode);
+            flattened().store(out, isEncodeUnicode);
         } catch (IOException e) {
             // Ignore any errors
         }
@@ -218,9 +502,29 @@ public class Properties extends AbstractMap<String, String> {
      * @return a <code>Properties</code> object
      */
     public Properties flatten() {
-        Properties result = new Properties();
-        flatten(result);
-        return result;
+        return flattened().copy();
+    }
+
+    // Returns the flattened properties, only rebuilding them when anything has changed
+    private Properties flattened() {
+        // Both versions only ever increase, so their sum does as well
+        long version = tokens.version() + defaultsChainVersion();
+        if (flattened == null || flattenedVersion != version) {
+            // Inflating changes the versions, so that has to be done before reading them
+            for (Properties p = this; p != null; p = p.defaults) {
+                p.inflate();
+            }
+            version = tokens.version() + defaultsChainVersion();
+            Properties result = new Properties();
+            flatten(result);
+            flattened = result;
+            flattenedVersion = version;
+        }
+        return flattened;
+    }
+
+    private long defaultsChainVersion() {
+        return defaults != null ? defaults.chainVersion.get() : 0;
     }
 
     private void flatten(Properties target) {
@@ -232,13 +536,14 @@ public class Properties extends AbstractMap<String, String> {
 
     @Override
     public Set<Entry<String, String>> entrySet() {
+        inflate();
         return new AbstractSet<Entry<String, String>>() {
             @Override
             public Iterator<Entry<String, String>> iterator() {
                 return new Iterator<Entry<String, String>>() {
-                    private final Iterator<Entry<String, String>> iter =
+                    private final Iterator<Entry<String, PropertiesParser.Token>> iter =
                             values.entrySet().iterator();
-                    private Entry<String, String> currentEntry;
+                    private Entry<String, PropertiesParser.Token> currentEntry;
 
                     @Override
                     public boolean hasNext() {
@@ -247,15 +552,23 @@ public class Properties extends AbstractMap<String, String> {
 
                     @Override
                     public Entry<String, String> next() {
-                        return (currentEntry = iter.next());
+                        currentEntry = iter.next();
+                        return new PropertyEntry(currentEntry.getKey());
                     }
 
                     @Override
                     public void remove() {
                         if (currentEntry != null) {
                             removeItem(currentEntry.getKey());
+                            if (listeners != null) {
+                                event(
+                                        PropertiesEvent.removed(
+                                                currentEntry.getKey(),
+                                                currentEntry.getValue().getText()));
+                            }
                         }
                         iter.remove();
+                        fireEvents();
                     }
                 };
             }
@@ -264,9 +577,143 @@ public class Properties extends AbstractMap<String, String> {
             public int size() {
                 return values.entrySet().size();
             }
+
+            @Override
+            public boolean removeIf(Predicate<? super Entry<String, String>> filter) {
+                List<String> keys = new ArrayList<>();
+                for (String key : values.keySet()) {
+                    if (filter.test(new PropertyEntry(key))) {
+                        keys.add(key);
+                    }
+                }
+                return Properties.this.removeAll(keys);
+            }
+
+            @Override
+            public boolean removeAll(Collection<?> c) {
+                Objects.requireNonNull(c);
+                return removeIf(c::contains);
+            }
+
+            @Override
+            public boolean retainAll(Collection<?> c) {
+                Objects.requireNonNull(c);
+                return removeIf(e -> !c.contains(e));
+            }
         };
     }
 
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                Iterator<Entry<String, String>> iter = entrySet().iterator();
+                return new Iterator<String>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iter.hasNext();
+                    }
+
+                    @Override
+                    public String next() {
+                        return iter.next().getKey();
+                    }
+
+                    @Override
+                    public void remove() {
+                        iter.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return Properties.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                if (!containsKey(o)) {
+                    return false;
+                }
+                Properties.this.remove(o);
+                return true;
+            }
+
+            @Override
+            public boolean removeIf(Predicate<? super String> filter) {
+                Objects.requireNonNull(filter);
+                return entrySet().removeIf(e -> filter.test(e.getKey()));
+            }
+
+            @Override
+            public boolean removeAll(Collection<?> c) {
+                Objects.requireNonNull(c);
+                return removeIf(c::contains);
+            }
+
+            @Override
+            public boolean retainAll(Collection<?> c) {
+                Objects.requireNonNull(c);
+                return removeIf(k -> !c.contains(k));
+            }
+
+            @Override
+            public void clear() {
+                Properties.this.clear();
+            }
+        };
+    }
+
+    // A live view of a single property, setting its value updates the underlying tokens
+    private class PropertyEntry implements Entry<String, String> {
+        private final String key;
+
+        PropertyEntry(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public String getValue() {
+            return get(key);
+        }
+
+        @Override
+        public String setValue(String value) {
+            return put(key, value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> e = (Entry<?, ?>) o;
+            return key.equals(e.getKey()) && Objects.equals(getValue(), e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+    }
+
     /**
      * Works like <code>keySet()</code> but returning the keys' raw values. Meaning that the keys
      * haven't been unescaped before being returned.
@@ -274,6 +721,7 @@ public class Properties extends AbstractMap<String, String> {
      * @return A set of raw key values
      */
     public Set<String> rawKeySet() {
+        inflate();
         return tokens.stream()
                 .filter(t -> t.type == PropertiesParser.Type.KEY)
                 .map(PropertiesParser.Token::getRaw)
@@ -287,6 +735,7 @@ public class Properties extends AbstractMap<String, String> {
      * @return a collection of raw values.
      */
     public Collection<String> rawValues() {
+        inflate();
         return IntStream.range(0, tokens.size())
                 .filter(idx -> tokens.get(idx).type == PropertiesParser.Type.KEY)
                 .mapToObj(idx -> tokens.get(idx + 2).getRaw())
@@ -295,7 +744,23 @@ public class Properties extends AbstractMap<String, String> {
 
     @Override
     public String get(Object key) {
-        return values.get(key);
+        if (compact != null) {
+            return key instanceof String ? compact.get((String) key) : null;
+        }
+        return textOf(values.get(key));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (compact != null) {
+            return key instanceof String && compact.containsKey((String) key);
+        }
+        return values.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return compact != null ? compact.size() : values.size();
     }
 
     /**
@@ -306,6 +771,9 @@ public class Properties extends AbstractMap<String, String> {
      * @return A raw value or <code>null</code> if the key wasn't found
      */
     public String getRaw(String rawKey) {
+        if (compact != null) {
+            return compact.getRaw(unescape(rawKey));
+        }
         Cursor pos = indexOf(unescape(rawKey));
         if (pos.hasToken()) {
             validate(pos.nextIf(PropertiesParser.Type.KEY), pos);
@@ -322,14 +790,17 @@ public class Properties extends AbstractMap<String, String> {
         if (key == null || value == null) {
             throw new NullPointerException();
         }
-        String rawValue = escape(value, false);
+        inflate();
+        PropertiesParser.Token token =
+                new PropertiesParser.Token(
+                        PropertiesParser.Type.VALUE, escape(value, false), value);
         if (values.containsKey(key)) {
-            replaceValue(key, rawValue, value);
+            replaceValue(key, token);
         } else {
             String rawKey = escape(key, true);
-            addNewKeyValue(rawKey, key, rawValue, value);
+            addNewKeyValue(rawKey, key, token);
         }
-        return values.put(key, value);
+        return changedValue(key, values.put(key, token), token);
     }
 
     /**
@@ -343,9 +814,18 @@ public class Properties extends AbstractMap<String, String> {
      * @return the previous value associated with key, or null if there was no mapping for key
      */
     public String putCommented(String key, String value, String... comment) {
-        String old = put(key, value);
-        setComment(key, comment);
-        return old;
+        if (listeners == null) {
+            String old = put(key, value);
+            setComment(key, comment);
+            return old;
+        }
+        String[] old = new String[1];
+        batch(
+                () -> {
+                    old[0] = put(key, value);
+                    setComment(key, comment);
+                });
+        return old[0];
     }
 
     /**
@@ -357,26 +837,121 @@ public class Properties extends AbstractMap<String, String> {
      * @return the previous value associated with key, or null if there was no mapping for key.
      */
     public String putRaw(String rawKey, String rawValue) {
+        inflate();
         String key = unescape(rawKey);
-        String value = unescape(rawValue);
+        PropertiesParser.Token token =
+                PropertiesParser.Token.escaped(PropertiesParser.Type.VALUE, rawValue);
         if (values.containsKey(key)) {
-            replaceValue(key, rawValue, value);
+            replaceValue(key, token);
         } else {
-            addNewKeyValue(rawKey, key, rawValue, value);
+            addNewKeyValue(rawKey, key, token);
         }
-        return values.put(key, value);
+        return changedValue(key, values.put(key, token), token);
     }
 
-    private void replaceValue(String key, String rawValue, String value) {
+    /**
+     * Copies all of the mappings from the specified map to these properties. Values of existing
+     * keys are replaced in place, while all new keys are added after the last property in a single
+     * operation, in the order in which the map returns them. The result is the same as calling
+     * <code>put()</code> for each mapping in turn.
+     *
+     * @param m mappings to be stored in these properties
+     */
+    @Override
+    public void putAll(Map<? extends String, ? extends String> m) {
+        if (listeners == null) {
+            putAllValues(m);
+        } else {
+            batch(() -> putAllValues(m));
+        }
+    }
+
+    private void putAllValues(Map<? extends String, ? extends String> m) {
+        int count = m.size();
+        String[] keys = new String[count];
+        PropertiesParser.Token[] newValues = new PropertiesParser.Token[count];
+        int n = 0;
+        for (Map.Entry<? extends String, ? extends String> entry : m.entrySet()) {
+            String key = entry.getKey();
+            String value = entry.getValue();
+            if (key == null || value == null) {
+                throw new NullPointerException();
+            }
+            keys[n] = key;
+            newValues[n] =
+                    new PropertiesParser.Token(
+                            PropertiesParser.Type.VALUE, escape(value, false), value);
+            n++;
+        }
+        inflate();
+        PropertiesParser.Token lastAdded = null;
+        List<PropertiesParser.Token> added = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (values.containsKey(keys[i])) {
+                replaceValue(keys[i], newValues[i]);
+            } else if (lastAdded == null) {
+                addNewKeyValue(escape(keys[i], true), keys[i], newValues[i]);
+                lastAdded = newValues[i];
+            } else {
+                // All following new properties end up directly after the first one,
+                // so they get collected and are then added all at once
+                added.add(
+                        new PropertiesParser.Token(
+                                PropertiesParser.Type.KEY, escape(keys[i], true), keys[i]));
+                added.add(PropertiesParser.pooled(PropertiesParser.Type.SEPARATOR, "="));
+                added.add(newValues[i]);
+                added.add(PropertiesParser.Token.EOL);
+            }
+        }
+        if (!added.isEmpty()) {
+            Cursor pos = last();
+            while (pos.token() != lastAdded) {
+                pos.prev();
+            }
+            pos.next();
+            if (pos.isEol()) {
+                tokens.addAll(pos.position() + 1, added);
+            } else {
+                // Put the line break in front of each property instead of after it
+                added.remove(added.size() - 1);
+                added.add(0, PropertiesParser.Token.EOL);
+                tokens.addAll(pos.position(), added);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            changedValue(keys[i], values.put(keys[i], newValues[i]), newValues[i]);
+        }
+    }
+
+    // Returns the text of the old value, notifying any listeners of the change
+    private String changedValue(
+            String key, PropertiesParser.Token oldValue, PropertiesParser.Token newValue) {
+        String old = textOf(oldValue);
+        if (listeners != null) {
+            if (old == null) {
+                event(PropertiesEvent.added(key, newValue.getText()));
+            } else if (!old.equals(newValue.getText())) {
+                event(PropertiesEvent.changed(key, old, newValue.getText()));
+            }
+            fireEvents();
+        }
+        return old;
+    }
+
+    private static String textOf(PropertiesParser.Token token) {
+        return token != null ? token.getText() : null;
+    }
+
+    private void replaceValue(String key, PropertiesParser.Token value) {
         Cursor pos = indexOf(key);
         validate(pos.nextIf(PropertiesParser.Type.KEY), pos);
         validate(pos.nextIf(PropertiesParser.Type.SEPARATOR), pos);
         validate(pos.isType(PropertiesParser.Type.VALUE), pos);
-        pos.replace(new PropertiesParser.Token(PropertiesParser.Type.VALUE, rawValue, value));
+        pos.replace(value);
     }
 
     // Add new tokens to the end of the list of tokens
-    private Cursor addNewKeyValue(String rawKey, String key, String rawValue, String value) {
+    private Cursor addNewKeyValue(String rawKey, String key, PropertiesParser.Token value) {
         // Track back from end until we encounter the last VALUE token (if any)
         Cursor pos = last();
         while (pos.isType(PropertiesParser.Type.WHITESPACE, PropertiesParser.Type.COMMENT)) {
@@ -407,20 +982,79 @@ public class Properties extends AbstractMap<String, String> {
         }
         // Add tokens for key, separator and value
         pos.add(new PropertiesParser.Token(PropertiesParser.Type.KEY, rawKey, key));
-        pos.add(new PropertiesParser.Token(PropertiesParser.Type.SEPARATOR, "="));
-        pos.add(new PropertiesParser.Token(PropertiesParser.Type.VALUE, rawValue, value));
+        pos.add(PropertiesParser.pooled(PropertiesParser.Type.SEPARATOR, "="));
+        pos.add(value);
         return pos;
     }
 
     @Override
     public String remove(Object key) {
+        inflate();
         String skey = key.toString();
         removeItem(skey);
-        return values.remove(skey);
+        String old = textOf(values.remove(skey));
+        if (listeners != null) {
+            event(PropertiesEvent.removed(skey, old));
+            fireEvents();
+        }
+        return old;
+    }
+
+    /**
+     * Removes all the given keys, and the comments attached to them, from these properties. The
+     * result is the same as calling <code>remove()</code> for each of them in turn, but all their
+     * tokens get removed in a single pass, which makes this a lot faster when removing many keys
+     * from large files. Keys that don't exist are ignored.
+     *
+     * @param keys the keys to remove
+     * @return <code>true</code> if any properties were removed
+     */
+    public boolean removeAll(Collection<String> keys) {
+        if (listeners == null) {
+            return removeItems(keys);
+        }
+        boolean[] result = new boolean[1];
+        batch(() -> result[0] = removeItems(keys));
+        return result[0];
+    }
+
+    private boolean removeItems(Collection<String> keys) {
+        inflate();
+        BitSet marked = new BitSet(tokens.size());
+        Set<String> removed = new LinkedHashSet<>();
+        for (String key : keys) {
+            if (values.containsKey(key) && removed.add(key)) {
+                markItem(key, marked);
+            }
+        }
+        if (removed.isEmpty()) {
+            return false;
+        }
+        tokens.removeMarked(marked);
+        for (String key : removed) {
+            String old = textOf(values.remove(key));
+            if (listeners != null) {
+                event(PropertiesEvent.removed(key, old));
+            }
+        }
+        fireEvents();
+        return true;
+    }
+
+    // Marks the same tokens that removeItem() would remove for the given key
+    private void markItem(String key, BitSet marked) {
+        Cursor pos = indexOf(key);
+        validate(pos.isType(PropertiesParser.Type.KEY), pos);
+        List<Integer> comments = findPropertyCommentLines(pos);
+        int from = comments.isEmpty() ? pos.position() : comments.get(0);
+        validate(pos.next().isType(PropertiesParser.Type.SEPARATOR), pos);
+        validate(pos.next().isType(PropertiesParser.Type.VALUE), pos);
+        pos.next();
+        marked.set(from, pos.isEol() ? pos.position() + 1 : pos.position());
     }
 
     private void removeItem(String skey) {
-        setComment(skey, Collections.emptyList());
+        replaceComment(skey, Collections.emptyList());
         Cursor pos = indexOf(skey);
         validate(pos.isType(PropertiesParser.Type.KEY), pos);
         pos.remove();
@@ -435,8 +1069,16 @@ public class Properties extends AbstractMap<String, String> {
 
     @Override
     public void clear() {
+        if (listeners != null) {
+            inflate();
+            values.forEach((key, value) -> event(PropertiesEvent.removed(key, value.getText())));
+        }
+        compact = null;
         tokens.clear();
         values.clear();
+        if (listeners != null) {
+            fireEvents();
+        }
     }
 
     /**
@@ -489,6 +1131,18 @@ public class Properties extends AbstractMap<String, String> {
      * @throws NoSuchElementException Thrown when they key couldn't be found
      */
     public List<String> setComment(String key, List<String> comments) {
+        List<String> oldcs = replaceComment(key, comments);
+        if (listeners != null) {
+            List<String> newcs = getComment(key);
+            if (!newcs.equals(oldcs)) {
+                event(PropertiesEvent.commentChanged(key, oldcs, newcs));
+                fireEvents();
+            }
+        }
+        return oldcs;
+    }
+
+    private List<String> replaceComment(String key, List<String> comments) {
         Cursor pos = indexOf(key);
         if (!pos.hasToken()) {
             throw new NoSuchElementException("Key not found: " + key);
@@ -586,9 +1240,10 @@ public class Properties extends AbstractMap<String, String> {
         fpos.prevIf(PropertiesParser.Token::isWs);
         // Skip a single preceding whitespace if it IS an EOL token
         fpos.prevIf(PropertiesParser.Token::isEol);
-        // Now find the first line of the comment block
-        while (fpos.prevIf(PropertiesParser.Type.COMMENT)) {
-            result.add(0, fpos.position() + 1);
+        // Now find the first line of the comment block, which can be the very first token
+        while (fpos.isType(PropertiesParser.Type.COMMENT)) {
+            result.add(0, fpos.position());
+            fpos.prev();
             // Skip a single preceding whitespace if it is NOT an EOL token
             fpos.prevIf(PropertiesParser.Token::isWs);
             // Skip a single preceding whitespace if it IS an EOL token
@@ -598,10 +1253,8 @@ public class Properties extends AbstractMap<String, String> {
     }
 
     private Cursor indexOf(String key) {
-        return index(
-                tokens.indexOf(
-                        new PropertiesParser.Token(
-                                PropertiesParser.Type.KEY, escape(key, true), key)));
+        inflate();
+        return index(tokens.indexOfKey(key));
     }
 
     private String escape(String raw, boolean forKey) {
@@ -615,18 +1268,42 @@ public class Properties extends AbstractMap<String, String> {
         return raw;
     }
 
-    private String encodeUnicode(String raw) {
-        StringBuilder builder = new StringBuilder();
-        for (int i = 0; i < raw.length(); i++) {
-            char c = raw.charAt(i);
-            if (c > 0x7F) { //Escape non-ascii characters
-                String hex = String.format("%04x", (int) c);
-                builder.append("\\u").append(hex);
-            } else {
-                builder.append(c);
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Writes the given text to the writer. When a buffer for unicode escapes is passed, all non-ASCII
+     * characters will be written as <code>&#92;uXXXX</code> escape sequences, while runs of ASCII
+     * characters are passed on to the writer unchanged.
+     *
+     * @param out the <code>Writer</code> to write to
+     * @param text the text to write
+     * @param escape a 6 character buffer starting with <code>&#92;u</code> or <code>null</code>
+     * @throws IOException Thrown when any IO error occurs during operation
+     */
+    private static void writeText(Writer out, String text, char[] escape) throws IOException {
+        if (escape == null) {
+            out.write(text);
+            return;
+        }
+        int len = text.length();
+        int run = 0;
+        for (int i = 0; i < len; i++) {
+            char c = text.charAt(i);
+            if (c > 0x7F) { // Escape non-ascii characters
+                if (i > run) {
+                    out.write(text, run, i - run);
+                }
+                escape[2] = HEX_DIGITS[(c >> 12) & 0xF];
+                escape[3] = HEX_DIGITS[(c >> 8) & 0xF];
+                escape[4] = HEX_DIGITS[(c >> 4) & 0xF];
+                escape[5] = HEX_DIGITS[c & 0xF];
+                out.write(escape, 0, 6);
+                run = i + 1;
             }
         }
-        return builder.toString();
+        if (run < len) {
+            out.write(text, run, len - run);
+        }
     }
 
     private static String replace(String input, String regex, Function<Matcher, String> callback) {
@@ -714,26 +1391,572 @@ public class Properties extends AbstractMap<String, String> {
      * @throws IOException Thrown when any IO error occurs during loading
      */
     public void load(Reader reader) throws IOException {
-        tokens.clear();
-        BufferedReader br =
-                reader instanceof BufferedReader
-                        ? (BufferedReader) reader
-                        : new BufferedReader(reader);
-        List<PropertiesParser.Token> ts = PropertiesParser.tokens(br).collect(Collectors.toList());
-        load(ts);
+        load(new PropertiesParser(reader));
     }
 
-    private Properties load(List<PropertiesParser.Token> ts) {
+    /**
+     * Loads only those properties from the given file whose keys are accepted by the filter and
+     * stores them in this object, together with any comments directly preceding them. All other
+     * properties, comments and whitespace are skipped while the file is being parsed, without ever
+     * getting turned into strings, so this is a lot cheaper than loading everything when only a
+     * small part of a large file is needed. The filter gets passed each (unescaped) key, which is
+     * only valid for the duration of the call.
+     *
+     * @param file a path to the file to load
+     * @param keyFilter a <code>Predicate</code> that determines which keys to load
+     * @throws IOException Thrown when any IO error occurs during loading
+     * @see #keyPrefixFilter(String...)
+     */
+    public void load(Path file, Predicate<CharSequence> keyFilter) throws IOException {
+        try (Reader br = Files.newBufferedReader(file)) {
+            load(br, keyFilter);
+        }
+    }
+
+    /**
+     * Loads only those properties from the reader whose keys are accepted by the filter and stores
+     * them in this object, together with any comments directly preceding them. All other
+     * properties, comments and whitespace are skipped while the input is being parsed, without
+     * ever getting turned into strings. The filter gets passed each (unescaped) key, which is only
+     * valid for the duration of the call.
+     *
+     * @param reader a <code>Reader</code> object
+     * @param keyFilter a <code>Predicate</code> that determines which keys to load
+     * @throws IOException Thrown when any IO error occurs during loading
+     * @see #keyPrefixFilter(String...)
+     */
+    public void load(Reader reader, Predicate<CharSequence> keyFilter) throws IOException {
+        load(new PropertiesParser(reader), keyFilter);
+    }
+
+    /**
+     * Returns a key filter for use with <code>load()</code> that accepts all keys starting with
+     * any of the given prefixes.
+     *
+     * @param prefixes the prefixes of the keys to accept
+     * @return a <code>Predicate</code> for keys
+     */
+    public static Predicate<CharSequence> keyPrefixFilter(String... prefixes) {
+        String[] ps = prefixes.clone();
+        return key -> {
+            for (String prefix : ps) {
+                if (startsWith(key, prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    private static boolean startsWith(CharSequence text, String prefix) {
+        int len = prefix.length();
+        if (text.length() < len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (text.charAt(i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Loads the contents from the given UTF-8 encoded file and stores it in this object. Instead of
+     * reading the file through a <code>Reader</code> it gets mapped into memory and is parsed
+     * directly from there, which is faster and uses less memory for large files. This includes not
+     * only properties but also all whitespace and any comments that are encountered.
+     *
+     * @param file a path to the file to load
+     * @throws IOException Thrown when any IO error occurs during loading
+     */
+    public void loadMapped(Path file) throws IOException {
+        loadMapped(file, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Loads the contents from the given file and stores it in this object. Instead of reading the
+     * file through a <code>Reader</code> it gets mapped into memory and is parsed directly from
+     * there, which is faster and uses less memory for large files. This includes not only
+     * properties but also all whitespace and any comments that are encountered.
+     *
+     * @param file a path to the file to load
+     * @param charset Specifies the encoding of the file
+     * @throws IOException Thrown when any IO error occurs during loading
+     */
+    public void loadMapped(Path file, Charset charset) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                // Too large to map in one go, fall back to reading it
+                load(new InputStreamReader(Channels.newInputStream(channel), charset));
+            } else {
+                ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                load(new PropertiesParser(bytes, charset));
+            }
+        }
+    }
+
+    /**
+     * Loads the contents from the given file and stores it in this object, just like <code>
+     * loadMapped(Path)</code>, but uses several threads to do so. The file gets split into chunks
+     * at line boundaries, which are parsed in parallel using the common fork-join pool. This is
+     * only worth it for very large files, small files are simply parsed in one go.
+     *
+     * @param file a path to the file to load
+     * @throws IOException Thrown when any IO error occurs during loading
+     */
+    public void loadParallel(Path file) throws IOException {
+        loadParallel(file, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Loads the contents from the given file and stores it in this object, using several threads.
+     * See <code>loadParallel(Path)</code> for details. Files in encodings other than UTF-8,
+     * ISO-8859-1 and US-ASCII can't be split and are always parsed in one go.
+     *
+     * @param file a path to the file to load
+     * @param charset Specifies the encoding of the file
+     * @throws IOException Thrown when any IO error occurs during loading
+     */
+    public void loadParallel(Path file, Charset charset) throws IOException {
+        if (!ChunkedParser.supports(charset)) {
+            loadMapped(file, charset);
+            return;
+        }
+        List<PropertiesParser.Token> ts;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ts = ChunkedParser.parse(channel, charset);
+        }
+        inflate();
+        tokens.clear();
         tokens.addAll(ts);
         String key = null;
+        for (PropertiesParser.Token token : ts) {
+            if (token.type == PropertiesParser.Type.KEY) {
+                key = token.getText();
+            } else if (token.type == PropertiesParser.Type.VALUE) {
+                values.put(key, token);
+            }
+        }
+    }
+
+    /**
+     * Replaces the contents of this object with the contents of the given file, keeping them in a
+     * compact form: the entire file is stored as a single block of text, with only the positions
+     * of its tokens next to it. This uses several times less memory than loading it normally,
+     * which makes it well suited for large files that are only read from. Looking up values and
+     * storing the properties can be done directly on the compact form, doing anything else (like
+     * iterating over the properties, retrieving comments or making changes) turns it into the
+     * normal form first. Files containing duplicate keys are always loaded normally. Listeners are
+     * not notified.
+     *
+     * @param file a path to the file to load
+     * @throws IOException Thrown when any IO error occurs during loading
+     */
+    public void loadCompact(Path file) throws IOException {
+        try (Reader br = Files.newBufferedReader(file)) {
+            loadCompact(br);
+        }
+    }
+
+    /**
+     * Replaces the contents of this object with the contents read from the reader, keeping them in
+     * a compact form. See <code>loadCompact(Path)</code> for details.
+     *
+     * @param reader a <code>Reader</code> object
+     * @throws IOException Thrown when any IO error occurs during loading
+     */
+    public void loadCompact(Reader reader) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[8192];
+        int n;
+        while ((n = reader.read(buf)) >= 0) {
+            sb.append(buf, 0, n);
+        }
+        String text = sb.toString();
+        CompactTokens result = CompactTokens.parse(text);
+        compact = null;
+        tokens.clear();
+        values.clear();
+        if (result != null) {
+            compact = result;
+        } else {
+            load(new PropertiesParser(new StringReader(text)));
+        }
+    }
+
+    // Turns the compact form, if any, back into tokens and values
+    private void inflate() {
+        CompactTokens c = compact;
+        if (c != null) {
+            compact = null;
+            String key = null;
+            int count = c.tokenCount();
+            List<PropertiesParser.Token> ts = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                PropertiesParser.Token token = c.token(i);
+                ts.add(token);
+                if (token.type == PropertiesParser.Type.KEY) {
+                    key = token.getText();
+                } else if (token.type == PropertiesParser.Type.VALUE) {
+                    values.put(key, token);
+                }
+            }
+            tokens.addAll(ts);
+        }
+    }
+
+    /**
+     * Loads a binary snapshot, as written by <code>storeSnapshot()</code>, from the given file and
+     * stores it in this object. The file gets mapped into memory and no parsing is necessary,
+     * which makes this the fastest way to load properties. The result is exactly the same as
+     * loading the text the snapshot was made from.
+     *
+     * @param file a path to the snapshot to load
+     * @throws IOException Thrown when any IO error occurs during loading or when the file isn't a
+     *     valid snapshot
+     */
+    public void loadSnapshot(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            loadSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Loads a binary snapshot, as written by <code>storeSnapshot()</code>, from the input and
+     * stores it in this object. The result is exactly the same as loading the text the snapshot
+     * was made from.
+     *
+     * @param in an <code>InputStream</code> object
+     * @throws IOException Thrown when any IO error occurs during loading or when the input isn't a
+     *     valid snapshot
+     */
+    public void loadSnapshot(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            bytes.write(buf, 0, n);
+        }
+        loadSnapshot(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    private void loadSnapshot(ByteBuffer bytes) throws IOException {
+        inflate();
+        tokens.clear();
+        PropertiesSnapshot.read(bytes, tokens, values);
+    }
+
+    private void load(PropertiesParser parser) throws IOException {
+        inflate();
+        tokens.clear();
+        String key = null;
+        PropertiesParser.Token token;
+        while ((token = parser.nextToken()) != null) {
+            tokens.add(token);
+            if (token.type == PropertiesParser.Type.KEY) {
+                key = token.getText();
+            } else if (token.type == PropertiesParser.Type.VALUE) {
+                values.put(key, token);
+            }
+        }
+    }
+
+    private void load(PropertiesParser parser, Predicate<CharSequence> keyFilter)
+            throws IOException {
+        inflate();
+        tokens.clear();
+        // Where the comment lines seen since the last property or empty line end, counted from
+        // the parser's mark. Their text is kept in the parser's window and only gets turned into
+        // tokens when the property they're attached to is accepted
+        int[] pendingEnds = new int[16];
+        int pendingCount = 0;
+        boolean lineHasComment = false;
+        // Set while going over the rest of the line of a property
+        boolean inProperty = false;
+        boolean accepted = false;
+        String key = null;
+        PropertiesParser.Type type;
+        while ((type = parser.next()) != null) {
+            if (type == PropertiesParser.Type.KEY) {
+                inProperty = true;
+                accepted = keyFilter.test(parser.getText());
+                if (accepted) {
+                    int from = 0;
+                    for (int i = 0; i < pendingCount; i++) {
+                        tokens.add(pendingToken(parser.marked(from, pendingEnds[i])));
+                        from = pendingEnds[i];
+                    }
+                    PropertiesParser.Token token = parser.token(type);
+                    tokens.add(token);
+                    key = token.getText();
+                }
+                parser.unmark();
+                pendingCount = 0;
+            } else if (inProperty) {
+                boolean eol = type == PropertiesParser.Type.WHITESPACE && isEol(parser.getRaw());
+                if (accepted) {
+                    PropertiesParser.Token token = parser.token(type);
+                    tokens.add(token);
+                    if (type == PropertiesParser.Type.VALUE) {
+                        values.put(key, token);
+                    }
+                }
+                inProperty = !eol;
+            } else {
+                CharSequence raw = parser.getRaw();
+                if (type == PropertiesParser.Type.WHITESPACE && isEol(raw) && !lineHasComment) {
+                    // An empty line, so nothing before it is attached to the next property
+                    parser.unmark();
+                    pendingCount = 0;
+                    continue;
+                }
+                if (type == PropertiesParser.Type.COMMENT) {
+                    lineHasComment = true;
+                } else if (isEol(raw)) {
+                    lineHasComment = false;
+                }
+                if (raw.length() == 0) {
+                    continue;
+                }
+                if (pendingCount == 0) {
+                    parser.mark();
+                } else if (pendingCount == pendingEnds.length) {
+                    pendingEnds = Arrays.copyOf(pendingEnds, pendingCount * 2);
+                }
+                pendingEnds[pendingCount++] = parser.markedLength();
+            }
+        }
+    }
+
+    private static boolean isEol(CharSequence raw) {
+        int len = raw.length();
+        return len > 0 && (raw.charAt(len - 1) == '\n' || raw.charAt(len - 1) == '\r');
+    }
+
+    private static PropertiesParser.Token pendingToken(String raw) {
+        PropertiesParser.Type type =
+                raw.charAt(0) == '#' || raw.charAt(0) == '!'
+                        ? PropertiesParser.Type.COMMENT
+                        : PropertiesParser.Type.WHITESPACE;
+        return raw.indexOf('\\') >= 0
+                ? PropertiesParser.Token.escaped(type, raw)
+                : PropertiesParser.pooled(type, raw);
+    }
+
+    /**
+     * Replaces the contents of this object with the contents of the given file, just like calling
+     * <code>clear()</code> followed by <code>load()</code> would. But instead of parsing the entire
+     * file again, only the lines that are different from the current contents are parsed, the
+     * existing tokens for all other lines are kept. This makes reloading a large file that had only
+     * a couple of changes much cheaper than loading it from scratch. Listeners are not notified.
+     *
+     * @param file a path to the file to load
+     * @throws IOException Thrown when any IO error occurs during loading
+     */
+    public void reload(Path file) throws IOException {
+        try (Reader br = Files.newBufferedReader(file)) {
+            reload(br);
+        }
+    }
+
+    /**
+     * Replaces the contents of this object with the contents read from the reader, just like
+     * calling <code>clear()</code> followed by <code>load()</code> would. But instead of parsing
+     * the entire input again, only the lines that are different from the current contents are
+     * parsed, the existing tokens for all other lines are kept. Listeners are not notified.
+     *
+     * @param reader a <code>Reader</code> object
+     * @throws IOException Thrown when any IO error occurs during loading
+     */
+    public void reload(Reader reader) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[8192];
+        int n;
+        while ((n = reader.read(buf)) != -1) {
+            sb.append(buf, 0, n);
+        }
+        reload(sb.toString());
+    }
+
+    private void reload(String text) throws IOException {
+        inflate();
+        int size = tokens.size();
+        // Find the unchanged tokens at the start, up to the end of the last complete line
+        int prefix = 0;
+        int prefixEnd = 0;
+        int pos = 0;
+        for (int i = 0; i < size; i++) {
+            PropertiesParser.Token token = tokens.get(i);
+            if (!text.startsWith(token.raw, pos)) {
+                break;
+            }
+            pos += token.raw.length();
+            if (endsLine(token, text, pos)) {
+                prefix = i + 1;
+                prefixEnd = pos;
+            }
+        }
+        // Find the unchanged tokens at the end, starting at the beginning of a line
+        int suffix = size;
+        int suffixStart = text.length();
+        pos = text.length();
+        for (int i = size - 1; i >= prefix; i--) {
+            PropertiesParser.Token token = tokens.get(i);
+            int start = pos - token.raw.length();
+            if (start < prefixEnd || !text.startsWith(token.raw, start)) {
+                break;
+            }
+            pos = start;
+            if ((i == 0 || endsLine(tokens.get(i - 1), null, 0)) && startsLine(text, pos)) {
+                suffix = i;
+                suffixStart = pos;
+            }
+        }
+        // Only the part in between needs to be parsed
+        List<PropertiesParser.Token> middle = new ArrayList<>();
+        try {
+            PropertiesParser parser =
+                    new PropertiesParser(
+                            new StringReader(text.substring(prefixEnd, suffixStart)));
+            PropertiesParser.Token token;
+            while ((token = parser.nextToken()) != null) {
+                middle.add(token);
+            }
+        } catch (IOException e) {
+            // The part in between can't be parsed by itself, which can only happen when it
+            // was cut off somewhere it shouldn't have been, parsing everything will tell
+            middle = null;
+        }
+        if (middle == null
+                || (suffix < size
+                        && !middle.isEmpty()
+                        && !endsLine(middle.get(middle.size() - 1), text, suffixStart))) {
+            // The new lines don't end cleanly where the unchanged ones start (eg. because of
+            // a line continuation) so we can't reuse them, fall back to parsing everything
+            tokens.clear();
+            values.clear();
+            load(new PropertiesParser(new StringReader(text)));
+            return;
+        }
+
+        int changed = suffix - prefix;
+        List<String> oldKeys = new ArrayList<>();
+        List<PropertiesParser.Token> oldValues = new ArrayList<>();
+        collectValues(tokens.subList(prefix, suffix), oldKeys, oldValues);
+        if (changed == middle.size()) {
+            // Keep using the old tokens for anything that didn't change
+            for (int i = 0; i < changed; i++) {
+                PropertiesParser.Token old = tokens.get(prefix + i);
+                if (old.type == middle.get(i).type && old.raw.equals(middle.get(i).raw)) {
+                    middle.set(i, old);
+                }
+            }
+        }
+        List<String> newKeys = new ArrayList<>();
+        List<PropertiesParser.Token> newValues = new ArrayList<>();
+        collectValues(middle, newKeys, newValues);
+
+        if (changed == middle.size()) {
+            // Replacing tokens doesn't move any others, which keeps the key index intact
+            for (int i = 0; i < changed; i++) {
+                if (tokens.get(prefix + i) != middle.get(i)) {
+                    tokens.set(prefix + i, middle.get(i));
+                }
+            }
+        } else if (changed + middle.size() <= TokenList.CHUNK_CAPACITY) {
+            for (int i = 0; i < changed; i++) {
+                tokens.remove(prefix);
+            }
+            for (int i = 0; i < middle.size(); i++) {
+                tokens.add(prefix + i, middle.get(i));
+            }
+        } else {
+            // For larger changes it's cheaper to just put the entire list together again
+            List<PropertiesParser.Token> all =
+                    new ArrayList<>(size - changed + middle.size());
+            all.addAll(tokens.subList(0, prefix));
+            all.addAll(middle);
+            all.addAll(tokens.subList(suffix, size));
+            tokens.clear();
+            tokens.addAll(all);
+        }
+
+        if (oldKeys.equals(newKeys)) {
+            // Same keys in the same order, so we can just update the values that changed
+            for (int i = 0; i < newKeys.size(); i++) {
+                String key = newKeys.get(i);
+                if (values.get(key) == oldValues.get(i) && oldValues.get(i) != newValues.get(i)) {
+                    values.put(key, newValues.get(i));
+                }
+            }
+        } else {
+            // Keys were added or removed, rebuild the values to get the right order
+            values.clear();
+            List<String> keys = new ArrayList<>();
+            List<PropertiesParser.Token> vals = new ArrayList<>();
+            collectValues(tokens, keys, vals);
+            for (int i = 0; i < keys.size(); i++) {
+                values.put(keys.get(i), vals.get(i));
+            }
+        }
+    }
+
+    /**
+     * Determines if the given token ends a line in such a way that parsing can start again right
+     * after it. When the input is given it also checks the token isn't a CR that is followed by a
+     * LF in the input, because the parser would have combined those into a single token.
+     */
+    private static boolean endsLine(PropertiesParser.Token token, String text, int pos) {
+        if (token.type != PropertiesParser.Type.WHITESPACE || token.raw.isEmpty()) {
+            return false;
+        }
+        char ch = token.raw.charAt(token.raw.length() - 1);
+        if (ch == '\r') {
+            return text == null || pos >= text.length() || text.charAt(pos) != '\n';
+        }
+        return ch == '\n';
+    }
+
+    /**
+     * Determines if the given position in the text directly follows a line ending that isn't
+     * escaped. A line ending after an odd number of backslashes is always treated as escaped, even
+     * though it wouldn't be in a comment, which at worst means a bit more of the text gets parsed.
+     */
+    private static boolean startsLine(String text, int pos) {
+        if (pos == 0) {
+            return true;
+        }
+        int end = pos - 1;
+        char ch = text.charAt(end);
+        if (ch == '\n') {
+            if (end > 0 && text.charAt(end - 1) == '\r') {
+                end--;
+            }
+        } else if (ch != '\r' || (pos < text.length() && text.charAt(pos) == '\n')) {
+            return false;
+        }
+        int backslashes = 0;
+        while (end > backslashes && text.charAt(end - backslashes - 1) == '\\') {
+            backslashes++;
+        }
+        return backslashes % 2 == 0;
+    }
+
+    private static void collectValues(
+            List<PropertiesParser.Token> tokens,
+            List<String> keys,
+            List<PropertiesParser.Token> values) {
+        String key = null;
         for (PropertiesParser.Token token : tokens) {
             if (token.type == PropertiesParser.Type.KEY) {
                 key = token.getText();
             } else if (token.type == PropertiesParser.Type.VALUE) {
-                values.put(key, token.getText());
+                keys.add(key);
+                values.add(token);
             }
         }
-        return this;
     }
 
     /**
@@ -798,6 +2021,105 @@ public class Properties extends AbstractMap<String, String> {
         return props;
     }
 
+    /**
+     * Loads all the given files in parallel, using the common fork-join pool. The result maps each
+     * file to its <code>Properties</code>, in the same order as the files were given.
+     *
+     * @param files the paths of the files to load
+     * @return a map of <code>Properties</code> objects
+     * @throws IOException Thrown when any IO error occurs during loading
+     */
+    public static Map<Path, Properties> loadAll(Collection<Path> files) throws IOException {
+        Path[] paths = files.toArray(new Path[0]);
+        Properties[] props = loadEach(paths);
+        Map<Path, Properties> result = new LinkedHashMap<>();
+        for (int i = 0; i < paths.length; i++) {
+            result.put(paths[i], props[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Loads all files ending in <code>.properties</code> found in the given directory and any of
+     * its subdirectories in parallel. The result maps each file to its <code>Properties</code>,
+     * sorted by path.
+     *
+     * @param directory the directory to search for files
+     * @return a map of <code>Properties</code> objects
+     * @throws IOException Thrown when any IO error occurs during loading
+     */
+    public static Map<Path, Properties> loadAll(Path directory) throws IOException {
+        return loadAll(findPropertiesFiles(directory));
+    }
+
+    /**
+     * Loads all the given files in parallel and chains them together using their defaults, where
+     * each file overrides the ones before it. The returned object contains the properties of the
+     * last file, with the properties of the file before it as its defaults, and so on.
+     *
+     * @param files the paths of the files to load, from lowest to highest priority
+     * @return a <code>Properties</code> object
+     * @throws IOException Thrown when any IO error occurs during loading
+     */
+    public static Properties loadLayered(List<Path> files) throws IOException {
+        Properties[] props = loadEach(files.toArray(new Path[0]));
+        // Only chained together once they're loaded, because the objects in a chain all
+        // share a single version that gets updated on every change to any of the defaults
+        Properties result = null;
+        for (Properties p : props) {
+            result = new Properties(result, p.values, p.tokens);
+        }
+        return result != null ? result : new Properties();
+    }
+
+    /**
+     * Loads all files ending in <code>.properties</code> found in the given directory and any of
+     * its subdirectories in parallel and chains them together in the order of their paths. See
+     * <code>loadLayered(List)</code> for details.
+     *
+     * @param directory the directory to search for files
+     * @return a <code>Properties</code> object
+     * @throws IOException Thrown when any IO error occurs during loading
+     */
+    public static Properties loadLayered(Path directory) throws IOException {
+        return loadLayered(findPropertiesFiles(directory));
+    }
+
+    private static List<Path> findPropertiesFiles(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths.filter(
+                            f ->
+                                    f.getFileName().toString().endsWith(".properties")
+                                            && Files.isRegularFile(f))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    // Loads each file, in parallel, into a new object of its own. None of those objects share
+    // anything, so they don't need any synchronization while being loaded
+    private static Properties[] loadEach(Path[] paths) throws IOException {
+        Properties[] props = new Properties[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            props[i] = new Properties();
+        }
+        try {
+            IntStream.range(0, paths.length)
+                    .parallel()
+                    .forEach(
+                            i -> {
+                                try {
+                                    props[i].load(paths[i]);
+                                } catch (IOException e) {
+                                    throw new UncheckedIOException(e);
+                                }
+                            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return props;
+    }
+
     public String asString(boolean isEncodeUnicode, String... comment) throws IOException {
         try (StringWriter writer = new StringWriter()) {
             store(writer, isEncodeUnicode, comment);
@@ -827,6 +2149,34 @@ public class Properties extends AbstractMap<String, String> {
         }
     }
 
+    /**
+     * Stores the contents of this object to the given file as a binary snapshot that can be
+     * loaded again using <code>loadSnapshot()</code>. Snapshots contain all properties, comments
+     * and whitespace but not the defaults.
+     *
+     * @param file a path to the file to write
+     * @throws IOException Thrown when any IO error occurs during operation
+     */
+    public void storeSnapshot(Path file) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            storeSnapshot(out);
+        }
+    }
+
+    /**
+     * Stores the contents of this object to the output as a binary snapshot that can be loaded
+     * again using <code>loadSnapshot()</code>. Snapshots contain all properties, comments and
+     * whitespace but not the defaults.
+     *
+     * @param out an <code>OutputStream</code> object
+     * @throws IOException Thrown when any IO error occurs during operation
+     */
+    public void storeSnapshot(OutputStream out) throws IOException {
+        inflate();
+        PropertiesSnapshot.write(
+                new DataOutputStream(new BufferedOutputStream(out)), tokens, values);
+    }
+
     /**
      * Stores the contents of this object to the given file.
      *
@@ -912,37 +2262,32 @@ public class Properties extends AbstractMap<String, String> {
      * @throws IOException Thrown when any IO error occurs during operation
      */
     public void store(Writer writer, boolean isEncodeUnicode, String... comment) throws IOException {
+        // All output goes through a buffer and gets flushed only once at the very end
+        Writer out = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer);
+        char[] escape = isEncodeUnicode ? new char[] {'\\', 'u', 0, 0, 0, 0} : null;
+        if (compact != null && comment.length == 0) {
+            writeText(out, compact.text(), escape);
+            out.flush();
+            return;
+        }
         Cursor pos = first();
         if (comment.length > 0) {
             pos = skipHeaderCommentLines();
             String nl = determineNewline();
             List<String> newcs = normalizeComments(Arrays.asList(comment), "# ");
             for (String c : newcs) {
-                String commentText = new PropertiesParser.Token(PropertiesParser.Type.COMMENT, c).getRaw();
-                String property = nl;
-                if (isEncodeUnicode) {
-                    commentText = encodeUnicode(commentText);
-                    property = encodeUnicode(property);
-                }
-                writer.write(commentText);
-                writer.flush();
-                writer.write(property);
-                writer.flush();
+                writeText(out, c, escape);
+                writeText(out, nl, escape);
             }
             // We write an extra empty line so this comment won't be taken as part of the first
             // property
-            String property = nl;
-            if (isEncodeUnicode) {
-                property = encodeUnicode(property);
-            }
-            writer.write(property);
-            writer.flush();
+            writeText(out, nl, escape);
         }
         while (pos.hasToken()) {
-            writer.write(isEncodeUnicode ? encodeUnicode(pos.raw()) : pos.raw());
-            writer.flush();
+            writeText(out, pos.raw(), escape);
             pos.next();
         }
+        out.flush();
     }
 
     /**
@@ -996,14 +2341,17 @@ public class Properties extends AbstractMap<String, String> {
     }
 
     private Cursor index(int index) {
+        inflate();
         return Cursor.index(tokens, index);
     }
 
     private Cursor first() {
+        inflate();
         return Cursor.first(tokens);
     }
 
     private Cursor last() {
+        inflate();
         return Cursor.last(tokens);
     }
 
@@ -0,0 +1,154 @@
+package org.codejive.properties;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Describes a single change made to a <code>Properties</code> object. Depending on the type of the
+ * event it either has old and new values or old and new comments.
+ */
+public class PropertiesEvent {
+    private final Type type;
+    private final String key;
+    private final String oldValue;
+    private final String newValue;
+    private final List<String> oldComment;
+    private final List<String> newComment;
+
+    public enum Type {
+        /** A new property was added */
+        ADDED,
+        /** The value of an existing property was changed */
+        CHANGED,
+        /** A property was removed */
+        REMOVED,
+        /** The comment of an existing property was changed */
+        COMMENT_CHANGED
+    }
+
+    private PropertiesEvent(
+            Type type,
+            String key,
+            String oldValue,
+            String newValue,
+            List<String> oldComment,
+            List<String> newComment) {
+        this.type = type;
+        this.key = key;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+        this.oldComment = oldComment;
+        this.newComment = newComment;
+    }
+
+    static PropertiesEvent added(String key, String value) {
+        return new PropertiesEvent(
+                Type.ADDED, key, null, value, Collections.emptyList(), Collections.emptyList());
+    }
+
+    static PropertiesEvent changed(String key, String oldValue, String newValue) {
+        return new PropertiesEvent(
+                Type.CHANGED,
+                key,
+                oldValue,
+                newValue,
+                Collections.emptyList(),
+                Collections.emptyList());
+    }
+
+    static PropertiesEvent removed(String key, String value) {
+        return new PropertiesEvent(
+                Type.REMOVED, key, value, null, Collections.emptyList(), Collections.emptyList());
+    }
+
+    static PropertiesEvent commentChanged(
+            String key, List<String> oldComment, List<String> newComment) {
+        return new PropertiesEvent(Type.COMMENT_CHANGED, key, null, null, oldComment, newComment);
+    }
+
+    /**
+     * Returns the type of change
+     *
+     * @return The event's type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the key of the property that was changed
+     *
+     * @return The (unescaped) key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the value the property had before the change, if any
+     *
+     * @return The old value or <code>null</code> for <code>ADDED</code> and <code>COMMENT_CHANGED
+     * </code> events
+     */
+    public String getOldValue() {
+        return oldValue;
+    }
+
+    /**
+     * Returns the value the property has after the change, if any
+     *
+     * @return The new value or <code>null</code> for <code>REMOVED</code> and <code>
+     * COMMENT_CHANGED</code> events
+     */
+    public String getNewValue() {
+        return newValue;
+    }
+
+    /**
+     * Returns the comment the property had before the change
+     *
+     * @return A list of comment lines, empty for all but <code>COMMENT_CHANGED</code> events
+     */
+    public List<String> getOldComment() {
+        return oldComment;
+    }
+
+    /**
+     * Returns the comment the property has after the change
+     *
+     * @return A list of comment lines, empty for all but <code>COMMENT_CHANGED</code> events
+     */
+    public List<String> getNewComment() {
+        return newComment;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PropertiesEvent that = (PropertiesEvent) o;
+        return type == that.type
+                && key.equals(that.key)
+                && Objects.equals(oldValue, that.oldValue)
+                && Objects.equals(newValue, that.newValue)
+                && oldComment.equals(that.oldComment)
+                && newComment.equals(that.newComment);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, key, oldValue, newValue, oldComment, newComment);
+    }
+
+    @Override
+    public String toString() {
+        if (type == Type.COMMENT_CHANGED) {
+            return "PropertiesEvent(" + type + ", '" + key + "', " + oldComment + ", " + newComment
+                    + ")";
+        } else {
+            return "PropertiesEvent(" + type + ", '" + key + "', '" + oldValue + "', '" + newValue
+                    + "')";
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package org.codejive.properties;
+
+import java.util.List;
+
+/**
+ * A listener that gets notified of any changes made to a <code>Properties</code> object. Events are
+ * delivered in batches: each call to a method that changes the properties results in at most one
+ * notification, containing the events for all the changes it made. Changes made within <code>
+ * Properties.batch()</code> are all delivered together once it finishes.
+ */
+@FunctionalInterface
+public interface PropertiesListener {
+    /**
+     * Called after one or more changes have been made to the properties.
+     *
+     * @param events The list of changes in the order they were made
+     */
+    void propertiesChanged(List<PropertiesEvent> events);
+}
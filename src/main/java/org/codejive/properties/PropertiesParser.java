@@ -2,9 +2,17 @@ package org.codejive.properties;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Objects;
 import java.util.Spliterators;
-import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -14,8 +22,26 @@ import java.util.stream.StreamSupport;
  * return a stream of tokens. These tokens will contain _all_ characters that were read from the
  * input which makes it possible to exactly recreate the original, including all whitespace and
  * comments.
+ *
+ * <p>Besides returning <code>Token</code> objects the parser can also be used as a pull parser that
+ * doesn't allocate anything per token. Calling <code>next()</code> advances to the next token and
+ * returns its type, after which its raw and processed values can be retrieved using <code>getRaw()
+ * </code> and <code>getText()</code>. Those values are views on the parser's internal buffers and
+ * are therefore only valid until the next call to <code>next()</code>. Only a single token is ever
+ * held in memory, so inputs of any size can be processed in constant memory:
+ *
+ * <pre>
+ * PropertiesParser parser = new PropertiesParser(reader);
+ * PropertiesParser.Type type;
+ * while ((type = parser.next()) != null) {
+ *     if (type == PropertiesParser.Type.KEY) {
+ *         CharSequence key = parser.getText();
+ *         ...
+ *     }
+ * }
+ * </pre>
  */
-class PropertiesParser {
+public class PropertiesParser {
 
     /** The type of token. */
     public enum Type {
@@ -43,7 +69,12 @@ class PropertiesParser {
     public static class Token {
         final Type type;
         final String raw;
-        final String text;
+        // The processed value, null when it's the same as the raw value
+        // or UNESCAPED while it hasn't been determined yet
+        private String text;
+
+        // Marker for tokens whose text still needs to be unescaped
+        private static final String UNESCAPED = new String("");
 
         public static final Token EOL =
                 new PropertiesParser.Token(PropertiesParser.Type.WHITESPACE, "\n");
@@ -75,6 +106,20 @@ class PropertiesParser {
             this.text = text;
         }
 
+        /**
+         * Creates a token whose raw value contains escape sequences. The processed value will only
+         * be determined when it is first asked for.
+         *
+         * @param type The token's type
+         * @param raw The token's raw value (including escape sequences)
+         * @return a new <code>Token</code>
+         */
+        static Token escaped(Type type, String raw) {
+            Token token = new Token(type, raw, null);
+            token.text = UNESCAPED;
+            return token;
+        }
+
         /**
          * Returns the token's type
          *
@@ -101,7 +146,17 @@ class PropertiesParser {
          * @return
          */
         public String getText() {
-            return text != null ? text : raw;
+            String t = text;
+            if (t == UNESCAPED) {
+                // Racing threads might both do this, but they'll always end up with the same
+                // result and strings can be shared safely, so that's harmless
+                t = unescape(raw);
+                if (t.equals(raw)) {
+                    t = null;
+                }
+                text = t;
+            }
+            return t != null ? t : raw;
         }
 
         /**
@@ -139,21 +194,50 @@ class PropertiesParser {
 
         @Override
         public String toString() {
-            if (text == null) {
+            String t = getText();
+            if (t == raw) {
                 return "Token(" + type + ", '" + raw + "')";
             } else {
-                return "Token(" + type + ", '" + raw + "'" + ", '" + text + "')";
+                return "Token(" + type + ", '" + raw + "'" + ", '" + t + "')";
             }
         }
     }
 
+    private static final int BUFFER_SIZE = 8192;
+
+    // Small separator and whitespace tokens are shared by all parsers and properties. The pool is
+    // lossy, a new token simply replaces whatever token was in its slot, so it never grows and
+    // doesn't need any locking: tokens are immutable and losing a race only costs a duplicate
+    private static final int POOL_SIZE = 1024;
+    private static final int MAX_POOLED_LENGTH = 16;
+    private static final Token[] POOL = new Token[POOL_SIZE];
+
     private final Reader rdr;
+    private final ByteBuffer bytes;
+    private final Charset charset;
+    private final boolean latin1;
+    private CharsetDecoder decoder;
+
+    // The window on the input, tokens are always fully contained within the window
+    private char[] buf;
+    // The position of the next character to read
+    private int pos;
+    // The end of the valid characters in the window
+    private int limit;
+    // The start of the token currently being scanned
+    private int start;
+    // The start of the input that has to be kept in the window, or -1
+    private int mark;
+    private boolean eof;
 
     private Type state;
-    private int pch;
-    private StringBuilder str;
     private boolean hasEscapes;
 
+    // The views on the current token returned by getRaw() and getText()
+    private CharBuffer rawView;
+    private StringBuilder textView;
+    private boolean textValid;
+
     /**
      * Constructor that takes a <code>Reader</code> for reading the input to parse.
      *
@@ -162,9 +246,36 @@ class PropertiesParser {
      */
     public PropertiesParser(Reader rdr) throws IOException {
         this.rdr = rdr;
+        this.bytes = null;
+        this.charset = null;
+        this.latin1 = false;
+        buf = new char[BUFFER_SIZE];
+        mark = -1;
+        state = null;
+    }
+
+    /**
+     * Constructor that takes a <code>ByteBuffer</code> (for example a memory-mapped file) and the
+     * charset to decode it with. ISO-8859-1 input, and UTF-8 and US-ASCII input for as long as it
+     * only contains ASCII characters, gets decoded directly while it's being read; any other input
+     * goes through a <code>CharsetDecoder</code>.
+     *
+     * @param bytes the input to parse
+     * @param charset the encoding of the input
+     */
+    PropertiesParser(ByteBuffer bytes, Charset charset) {
+        this.rdr = null;
+        this.bytes = bytes;
+        this.charset = charset;
+        this.latin1 = charset.equals(StandardCharsets.ISO_8859_1);
+        if (!latin1
+                && !charset.equals(StandardCharsets.UTF_8)
+                && !charset.equals(StandardCharsets.US_ASCII)) {
+            decoder = newDecoder(charset);
+        }
+        buf = new char[BUFFER_SIZE];
+        mark = -1;
         state = null;
-        str = new StringBuilder();
-        readChar();
     }
 
     /**
@@ -190,7 +301,7 @@ class PropertiesParser {
                                 return false;
                             }
                         } catch (IOException ex) {
-                            throw new RuntimeException(ex);
+                            throw new UncheckedIOException(ex);
                         }
                     }
                 },
@@ -204,100 +315,400 @@ class PropertiesParser {
      * @throws IOException Thrown when any IO error occurs during parsing
      */
     public Token nextToken() throws IOException {
-        int ch = peekChar();
-        if (isEof(ch)) {
+        Type type = scanToken();
+        return type != null ? token(type) : null;
+    }
+
+    /**
+     * Returns a token with the given type for the characters that <code>next()</code> advanced to.
+     */
+    Token token(Type type) {
+        int len = pos - start;
+        if (len <= MAX_POOLED_LENGTH && (type == Type.SEPARATOR || type == Type.WHITESPACE)) {
+            return pooled(type, buf, start, len);
+        }
+        String raw = new String(buf, start, len);
+        return hasEscapes ? Token.escaped(type, raw) : new Token(type, raw);
+    }
+
+    /**
+     * Returns a token with the given type and raw value, which will be a shared instance for small
+     * separator and whitespace tokens.
+     *
+     * @param type The token's type
+     * @param raw The token's value, which can't contain any escape sequences
+     * @return a <code>Token</code>
+     */
+    static Token pooled(Type type, String raw) {
+        int len = raw.length();
+        if (len > MAX_POOLED_LENGTH || (type != Type.SEPARATOR && type != Type.WHITESPACE)) {
+            return new Token(type, raw);
+        }
+        int h = type.ordinal();
+        for (int i = 0; i < len; i++) {
+            h = 31 * h + raw.charAt(i);
+        }
+        int slot = slot(h);
+        Token token = POOL[slot];
+        if (token == null || token.type != type || !token.raw.equals(raw)) {
+            token = new Token(type, raw);
+            POOL[slot] = token;
+        }
+        return token;
+    }
+
+    private static Token pooled(Type type, char[] chars, int offset, int len) {
+        int h = type.ordinal();
+        for (int i = offset; i < offset + len; i++) {
+            h = 31 * h + chars[i];
+        }
+        int slot = slot(h);
+        Token token = POOL[slot];
+        if (token == null || token.type != type || !matches(token.raw, chars, offset, len)) {
+            token = new Token(type, new String(chars, offset, len));
+            POOL[slot] = token;
+        }
+        return token;
+    }
+
+    private static int slot(int hash) {
+        return (hash ^ (hash >>> 16)) & (POOL_SIZE - 1);
+    }
+
+    private static boolean matches(String raw, char[] chars, int offset, int len) {
+        if (raw.length() != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (raw.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Advances to the next token in the input and returns its type or <code>null</code> if the end
+     * of the input was reached. The token's values can be retrieved using <code>getRaw()</code>
+     * and <code>getText()</code>.
+     *
+     * @return a <code>Type</code> or <code>null</code>
+     * @throws IOException Thrown when any IO error occurs during parsing
+     */
+    public Type next() throws IOException {
+        return scanToken();
+    }
+
+    /**
+     * Returns the unprocessed/raw value of the token that <code>next()</code> advanced to. The
+     * returned value is only valid until the next call to <code>next()</code>, use <code>
+     * toString()</code> to keep it around.
+     *
+     * @return a <code>CharSequence</code> containing the token's raw value
+     */
+    public CharSequence getRaw() {
+        CharBuffer view = rawView;
+        if (view == null || view.capacity() != buf.length) {
+            // The window was replaced by a bigger one
+            view = rawView = CharBuffer.wrap(buf).asReadOnlyBuffer();
+        }
+        view.limit(pos).position(start);
+        return view;
+    }
+
+    /**
+     * Returns the processed value of the token that <code>next()</code> advanced to, meaning it
+     * will not contain any escape sequences but only actual characters. The returned value is only
+     * valid until the next call to <code>next()</code>, use <code>toString()</code> to keep it
+     * around.
+     *
+     * @return a <code>CharSequence</code> containing the token's processed value
+     */
+    public CharSequence getText() {
+        if (!hasEscapes) {
+            return getRaw();
+        }
+        if (!textValid) {
+            if (textView == null) {
+                textView = new StringBuilder();
+            }
+            textView.setLength(0);
+            unescape(getRaw(), textView);
+            textValid = true;
+        }
+        return textView;
+    }
+
+    /**
+     * Determines if the token that <code>next()</code> advanced to contains any escape sequences.
+     */
+    boolean hasEscapes() {
+        return hasEscapes;
+    }
+
+    /**
+     * Keeps the input from the start of the token that <code>next()</code> advanced to in the
+     * window until <code>unmark()</code> gets called, so it can still be retrieved using <code>
+     * marked()</code> after the parser has moved on.
+     */
+    void mark() {
+        mark = start;
+    }
+
+    /** Lets the window drop the input that was kept since the last call to <code>mark()</code>. */
+    void unmark() {
+        mark = -1;
+    }
+
+    /**
+     * Returns the length of the input from the mark up to the end of the token that <code>next()
+     * </code> advanced to.
+     */
+    int markedLength() {
+        return pos - mark;
+    }
+
+    /** Returns the part of the input between the given offsets, counted from the mark. */
+    String marked(int from, int to) {
+        return new String(buf, mark + from, to - from);
+    }
+
+    /**
+     * Scans the next token in the input, leaving its characters in the window between <code>start
+     * </code> and <code>pos</code>, and returns its type or <code>null</code> if the end of the
+     * input was reached.
+     */
+    private Type scanToken() throws IOException {
+        start = pos;
+        hasEscapes = false;
+        textValid = false;
+        if (!ensureChar()) {
             return null;
         }
-        int oldch = -1;
-        BiFunction<Integer, Integer, Boolean> isValid = (c, oldc) -> false;
-        Type nextState = null;
-        if (state == null) {
+        Type type = state;
+        if (type == null) {
+            char ch = buf[pos];
             if (isCommentChar(ch)) {
-                state = Type.COMMENT;
-                isValid = (c, oldc) -> !isEol(c) && !isEof(c);
+                type = Type.COMMENT;
             } else if (isWhitespaceChar(ch)) {
-                state = Type.WHITESPACE;
-                isValid = (c, oldc) -> isWhitespaceChar(c) && !isEol(oldc);
+                type = Type.WHITESPACE;
             } else {
-                state = Type.KEY;
-                isValid = (c, oldc) -> !isSeparatorChar(c);
-                nextState = Type.SEPARATOR;
+                type = Type.KEY;
             }
-        } else if (state == Type.SEPARATOR) {
-            isValid = (c, oldc) -> isSeparatorChar(c);
-            nextState = Type.VALUE;
-        } else if (state == Type.VALUE) {
-            isValid = (c, oldc) -> !isEol(c) && !isEof(c);
-        }
-        while (true) {
-            if (isValid.apply(ch, oldch)) {
-                addChar(readChar());
-                oldch = ch;
-                ch = peekChar();
-            } else {
-                String text = string();
-                Token token =
-                        hasEscapes
-                                ? new Token(state, text, unescape(text))
-                                : new Token(state, text);
-                hasEscapes = false;
-                state = nextState;
-                return token;
+        }
+        switch (type) {
+            case KEY:
+                scanKey();
+                state = Type.SEPARATOR;
+                break;
+            case SEPARATOR:
+                scanSeparator();
+                state = Type.VALUE;
+                break;
+            case WHITESPACE:
+                scanWhitespace();
+                state = null;
+                break;
+            default:
+                // Both comments and values run until the end of the (logical) line
+                scanLine();
+                state = null;
+                break;
+        }
+        return type;
+    }
+
+    private void scanKey() throws IOException {
+        while (ensureChar()) {
+            char ch = buf[pos];
+            if (isSeparatorChar(ch)) {
+                return;
+            }
+            pos++;
+            if (ch == '\\') {
+                scanEscape();
+            } else if (ch == '\r') {
+                skipLf();
             }
         }
     }
 
-    private int peekChar() {
-        return pch;
+    private void scanSeparator() throws IOException {
+        while (ensureChar() && isSeparatorChar(buf[pos])) {
+            pos++;
+        }
     }
 
-    private int readChar() throws IOException {
-        int ch = pch;
-        pch = rdr.read();
-        return ch;
+    private void scanWhitespace() throws IOException {
+        while (ensureChar()) {
+            char ch = buf[pos];
+            if (!isWhitespaceChar(ch)) {
+                return;
+            }
+            pos++;
+            if (ch == '\n') {
+                return;
+            } else if (ch == '\r') {
+                skipLf();
+                return;
+            }
+        }
     }
 
-    private void addChar(int ch) throws IOException {
-        str.append((char) ch);
-        if (ch == '\\') {
-            hasEscapes = true;
-            int ch2 = readChar();
-            str.append((char) ch2);
-            if (ch2 == 'u') {
-                for (int i = 0; i < 4; i++) {
-                    int chu = readChar();
-                    if (!isHexDigitChar(chu)) {
-                        throw new IOException("Invalid unicode escape character: " + chu);
-                    }
-                    str.append((char) chu);
+    private void scanLine() throws IOException {
+        do {
+            char[] b = buf;
+            int p = pos;
+            int l = limit;
+            while (p < l) {
+                char ch = b[p];
+                if (ch == '\n' || ch == '\r') {
+                    pos = p;
+                    return;
+                }
+                p++;
+                if (ch == '\\') {
+                    pos = p;
+                    scanEscape();
+                    // The window might have been moved or resized
+                    b = buf;
+                    p = pos;
+                    l = limit;
+                }
+            }
+            pos = p;
+        } while (fill());
+    }
+
+    // Skips the character(s) following a backslash
+    private void scanEscape() throws IOException {
+        hasEscapes = true;
+        if (!ensureChar()) {
+            // A lone backslash at the very end of the input
+            return;
+        }
+        char ch = buf[pos++];
+        if (ch == 'u') {
+            for (int i = 0; i < 4; i++) {
+                int chu = ensureChar() ? buf[pos++] : -1;
+                if (!isHexDigitChar(chu)) {
+                    throw new IOException("Invalid unicode escape character: " + chu);
                 }
-            } else {
-                readEol(ch2);
             }
-        } else {
-            readEol(ch);
+        } else if (ch == '\r') {
+            skipLf();
         }
     }
 
-    private void readEol(int ch) throws IOException {
-        if (ch == '\r') {
-            if (peekChar() == '\n') {
-                str.append((char) readChar());
+    private void skipLf() throws IOException {
+        if (ensureChar() && buf[pos] == '\n') {
+            pos++;
+        }
+    }
+
+    private boolean ensureChar() throws IOException {
+        return pos < limit || fill();
+    }
+
+    /**
+     * Reads more input into the window, discarding any characters before the start of the current
+     * token, or before the mark if there is one, and growing the window if the rest doesn't fit.
+     *
+     * @return <code>false</code> if there's no more input, <code>true</code> otherwise
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        int keep = mark >= 0 ? mark : start;
+        if (keep > 0) {
+            System.arraycopy(buf, keep, buf, 0, limit - keep);
+            limit -= keep;
+            pos -= keep;
+            start -= keep;
+            if (mark >= 0) {
+                mark = 0;
+            }
+        }
+        int n;
+        do {
+            // Always leave room for at least a surrogate pair
+            if (buf.length - limit < 2) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            n = rdr != null ? rdr.read(buf, limit, buf.length - limit) : decode();
+            if (n < 0) {
+                eof = true;
+                return false;
+            }
+        } while (n == 0);
+        limit += n;
+        return true;
+    }
+
+    // Decodes bytes from the input buffer into the window, returns -1 at the end of the input
+    private int decode() throws IOException {
+        ByteBuffer in = bytes;
+        if (decoder == null) {
+            int p = in.position();
+            int n = Math.min(buf.length - limit, in.remaining());
+            if (n == 0) {
+                return -1;
+            }
+            char[] b = buf;
+            int l = limit;
+            int i = 0;
+            if (latin1) {
+                for (; i < n; i++) {
+                    b[l + i] = (char) (in.get(p + i) & 0xFF);
+                }
+            } else {
+                for (; i < n; i++) {
+                    byte ch = in.get(p + i);
+                    if (ch < 0) {
+                        // Not ASCII, from here on we let a real decoder take over,
+                        // which for US-ASCII will report the byte as malformed
+                        decoder = newDecoder(charset);
+                        break;
+                    }
+                    b[l + i] = (char) ch;
+                }
             }
+            in.position(p + i);
+            if (i > 0 || decoder == null) {
+                return i;
+            }
+        }
+        if (!in.hasRemaining()) {
+            return -1;
+        }
+        CharBuffer out = CharBuffer.wrap(buf, limit, buf.length - limit);
+        CoderResult res = decoder.decode(in, out, true);
+        if (res.isError()) {
+            res.throwException();
+        }
+        if (!in.hasRemaining()) {
+            decoder.flush(out);
         }
+        return out.position() - limit;
     }
 
-    private String string() {
-        String result = str.toString();
-        str.setLength(0);
-        return result;
+    private static CharsetDecoder newDecoder(Charset charset) {
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
     }
 
     static String unescape(String escape) {
         StringBuilder txt = new StringBuilder();
+        unescape(escape, txt);
+        return txt.toString();
+    }
+
+    private static void unescape(CharSequence escape, StringBuilder txt) {
         for (int i = 0; i < escape.length(); i++) {
             char ch = escape.charAt(i);
-            if (ch == '\\') {
+            if (ch == '\\' && i < escape.length() - 1) {
                 ch = escape.charAt(++i);
                 switch (ch) {
                     case 't':
@@ -313,7 +724,7 @@ class PropertiesParser {
                         txt.append('\r');
                         break;
                     case 'u':
-                        String num = escape.substring(i + 1, i + 5);
+                        String num = escape.subSequence(i + 1, i + 5).toString();
                         txt.append((char) Integer.parseInt(num, 16));
                         i += 4;
                         break;
@@ -335,11 +746,10 @@ class PropertiesParser {
                         txt.append(ch);
                         break;
                 }
-            } else {
+            } else if (ch != '\\') {
                 txt.append(ch);
             }
         }
-        return txt.toString();
     }
 
     private static boolean isSeparatorChar(int ch) {
@@ -362,8 +772,4 @@ class PropertiesParser {
     private static boolean isEol(int ch) {
         return ch == '\n' || ch == '\r';
     }
-
-    private static boolean isEof(int ch) {
-        return ch == -1;
-    }
 }
@@ -0,0 +1,159 @@
+package org.codejive.properties;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the binary snapshot format used by <code>Properties.storeSnapshot()</code> and
+ * <code>Properties.loadSnapshot()</code>. A snapshot contains the exact list of tokens, so loading
+ * it results in the same properties, formatting and comments as loading the original text, but
+ * without having to lex anything.
+ *
+ * <p>The format consists of, with all numbers being big-endian 32-bit integers:
+ *
+ * <ul>
+ *   <li>a header: the magic number and the format's version
+ *   <li>the string table: the number of strings followed by each string's length in bytes and its
+ *       UTF-8 encoded bytes. Each distinct string is only stored once
+ *   <li>the tokens: the number of tokens followed by a byte for each token's type, with the high
+ *       bit set when the token contains escape sequences, and the index of its raw value in the
+ *       string table
+ *   <li>the key index: the number of properties followed by, for each property, the index of its
+ *       (unescaped) key in the string table and the position of its value in the list of tokens
+ * </ul>
+ */
+class PropertiesSnapshot {
+    private static final int MAGIC = 0x4a505300; // "JPS\0"
+    private static final int VERSION = 1;
+    private static final int ESCAPED = 0x80;
+
+    private static final PropertiesParser.Type[] TYPES = PropertiesParser.Type.values();
+
+    private PropertiesSnapshot() {}
+
+    static void write(
+            DataOutputStream out,
+            List<PropertiesParser.Token> tokens,
+            Map<String, PropertiesParser.Token> values)
+            throws IOException {
+        HashMap<String, Integer> strings = new HashMap<>();
+        int[] tokenStrings = new int[tokens.size()];
+        IdentityHashMap<PropertiesParser.Token, Integer> positions = new IdentityHashMap<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            PropertiesParser.Token token = tokens.get(i);
+            tokenStrings[i] = intern(strings, token.raw);
+            if (token.type == PropertiesParser.Type.VALUE) {
+                positions.put(token, i);
+            }
+        }
+        int[] keyStrings = new int[values.size()];
+        int[] valuePositions = new int[values.size()];
+        int count = 0;
+        for (Map.Entry<String, PropertiesParser.Token> entry : values.entrySet()) {
+            Integer pos = positions.get(entry.getValue());
+            if (pos != null) {
+                keyStrings[count] = intern(strings, entry.getKey());
+                valuePositions[count] = pos;
+                count++;
+            }
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        String[] table = new String[strings.size()];
+        for (Map.Entry<String, Integer> entry : strings.entrySet()) {
+            table[entry.getValue()] = entry.getKey();
+        }
+        out.writeInt(table.length);
+        for (String s : table) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        out.writeInt(tokens.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            PropertiesParser.Token token = tokens.get(i);
+            int type = token.type.ordinal();
+            if (token.raw.indexOf('\\') >= 0) {
+                type |= ESCAPED;
+            }
+            out.writeByte(type);
+            out.writeInt(tokenStrings[i]);
+        }
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeInt(keyStrings[i]);
+            out.writeInt(valuePositions[i]);
+        }
+        out.flush();
+    }
+
+    private static int intern(HashMap<String, Integer> strings, String s) {
+        Integer idx = strings.get(s);
+        if (idx == null) {
+            idx = strings.size();
+            strings.put(s, idx);
+        }
+        return idx;
+    }
+
+    static void read(
+            ByteBuffer in,
+            List<PropertiesParser.Token> tokens,
+            Map<String, PropertiesParser.Token> values)
+            throws IOException {
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Not a properties snapshot");
+            }
+            int version = in.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported properties snapshot version: " + version);
+            }
+            String[] table = new String[count(in)];
+            byte[] bytes = new byte[256];
+            for (int i = 0; i < table.length; i++) {
+                int len = count(in);
+                if (len > bytes.length) {
+                    bytes = new byte[Math.max(len, bytes.length * 2)];
+                }
+                in.get(bytes, 0, len);
+                table[i] = new String(bytes, 0, len, StandardCharsets.UTF_8);
+            }
+            PropertiesParser.Token[] ts = new PropertiesParser.Token[count(in)];
+            for (int i = 0; i < ts.length; i++) {
+                int type = in.get() & 0xff;
+                String raw = table[in.getInt()];
+                PropertiesParser.Type t = TYPES[type & ~ESCAPED];
+                ts[i] =
+                        (type & ESCAPED) != 0
+                                ? PropertiesParser.Token.escaped(t, raw)
+                                : PropertiesParser.pooled(t, raw);
+            }
+            int count = count(in);
+            tokens.addAll(Arrays.asList(ts));
+            for (int i = 0; i < count; i++) {
+                String key = table[in.getInt()];
+                values.put(key, ts[in.getInt()]);
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt properties snapshot", e);
+        }
+    }
+
+    private static int count(ByteBuffer in) throws IOException {
+        int n = in.getInt();
+        if (n < 0 || n > in.remaining()) {
+            throw new IOException("Corrupt properties snapshot");
+        }
+        return n;
+    }
+}
@@ -0,0 +1,297 @@
+package org.codejive.properties;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps a <code>Properties</code> object up-to-date with a file on disk. Whenever the file changes
+ * it gets parsed again and only the differences are applied to the properties: new keys get added,
+ * changed values and comments get replaced and missing keys get removed. Everything else, including
+ * the formatting of any unchanged properties, stays untouched. All differences are applied as a
+ * single batch, so listeners get notified only once per reload.
+ *
+ * <p>Bursts of changes (like an editor writing a file in several steps) are combined by waiting
+ * until the file has been left alone for a short while. The file is only parsed when its size,
+ * modification time or contents have actually changed.
+ *
+ * <p>Changes are made from the watcher's own thread. When watching a <code>Properties</code> object
+ * all changes are made while holding its lock, so any other code using it should synchronize on
+ * it as well. A <code>ConcurrentProperties</code> object doesn't need any external synchronization.
+ *
+ * <p>IO errors while reading the file are ignored, the file is simply read again on its next change.
+ * Any other exceptions, for example thrown by a listener, are passed to the error handler set with
+ * <code>onError()</code>, or to the thread's uncaught exception handler when there is none. In both
+ * cases the watcher keeps on running.
+ *
+ * <pre>
+ * try (PropertiesWatcher watcher = new PropertiesWatcher(path, props)) {
+ *     watcher.start();
+ *     ...
+ * }
+ * </pre>
+ */
+public class PropertiesWatcher implements Closeable {
+    private static final Duration DEFAULT_DEBOUNCE = Duration.ofMillis(100);
+    // Modification times are not always precise, so a file that was changed shortly
+    // before we last read it might have been changed again without its time changing
+    private static final long RACY_MILLIS = 2000;
+
+    private final Path file;
+    private final Consumer<Consumer<Properties>> updater;
+    private final long debounceNanos;
+
+    private WatchService watchService;
+    private Thread thread;
+    private volatile boolean closed;
+    private volatile Consumer<? super RuntimeException> errorHandler;
+
+    // What the file looked like the last time it was read
+    private long size = -1;
+    private long modified;
+    private long lastRead;
+    private long hash = -1;
+
+    /**
+     * Creates a watcher that keeps the given properties up-to-date with the given file.
+     *
+     * @param file the file to watch
+     * @param props the properties to update
+     */
+    public PropertiesWatcher(Path file, Properties props) {
+        this(file, props, DEFAULT_DEBOUNCE);
+    }
+
+    /**
+     * Creates a watcher that keeps the given properties up-to-date with the given file.
+     *
+     * @param file the file to watch
+     * @param props the properties to update
+     * @param debounce how long the file must remain unchanged before it is reloaded
+     */
+    public PropertiesWatcher(Path file, Properties props, Duration debounce) {
+        this(
+                file,
+                change -> {
+                    synchronized (props) {
+                        props.batch(() -> change.accept(props));
+                    }
+                },
+                debounce);
+    }
+
+    /**
+     * Creates a watcher that keeps the given properties up-to-date with the given file.
+     *
+     * @param file the file to watch
+     * @param props the properties to update
+     */
+    public PropertiesWatcher(Path file, ConcurrentProperties props) {
+        this(file, props, DEFAULT_DEBOUNCE);
+    }
+
+    /**
+     * Creates a watcher that keeps the given properties up-to-date with the given file.
+     *
+     * @param file the file to watch
+     * @param props the properties to update
+     * @param debounce how long the file must remain unchanged before it is reloaded
+     */
+    public PropertiesWatcher(Path file, ConcurrentProperties props, Duration debounce) {
+        this(file, props::update, debounce);
+    }
+
+    private PropertiesWatcher(
+            Path file, Consumer<Consumer<Properties>> updater, Duration debounce) {
+        this.file = file.toAbsolutePath();
+        this.updater = updater;
+        this.debounceNanos = debounce.toNanos();
+    }
+
+    /**
+     * Sets the handler that gets called, from the watcher's thread, when a reload fails with an
+     * unexpected exception. By default those get passed to the thread's uncaught exception
+     * handler.
+     *
+     * @param handler the handler to call or <code>null</code> to use the default
+     */
+    public void onError(Consumer<? super RuntimeException> handler) {
+        errorHandler = handler;
+    }
+
+    /**
+     * Starts watching the file for changes in a background thread. The file is not read
+     * immediately, call <code>reload()</code> for that.
+     *
+     * @throws IOException Thrown when the file's directory could not be watched
+     */
+    public synchronized void start() throws IOException {
+        if (thread != null || closed) {
+            throw new IllegalStateException("Watcher was already started");
+        }
+        watchService = file.getFileSystem().newWatchService();
+        file.getParent().register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        thread = new Thread(this::run, "PropertiesWatcher " + file.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Checks if the file has changed since it was last read and if so parses it and applies any
+     * differences to the properties.
+     *
+     * @return <code>true</code> if the file was parsed, <code>false</code> if it was unchanged
+     * @throws IOException Thrown when any IO error occurs during loading
+     */
+    public synchronized boolean reload() throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        long mtime = attrs.lastModifiedTime().toMillis();
+        if (attrs.size() == size && mtime == modified && mtime + RACY_MILLIS < lastRead) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        byte[] bytes = Files.readAllBytes(file);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        long newHash = crc.getValue();
+        if (newHash != hash) {
+            Properties loaded = new Properties();
+            loaded.load(
+                    new InputStreamReader(
+                            new ByteArrayInputStream(bytes), StandardCharsets.UTF_8));
+            updater.accept(props -> applyChanges(loaded, props));
+        }
+        size = bytes.length;
+        modified = mtime;
+        lastRead = now;
+        boolean changed = newHash != hash;
+        hash = newHash;
+        return changed;
+    }
+
+    /**
+     * Stops watching the file. No more changes will be made to the properties once this method
+     * returns.
+     */
+    @Override
+    public void close() throws IOException {
+        Thread t;
+        synchronized (this) {
+            closed = true;
+            t = thread;
+            if (watchService != null) {
+                watchService.close();
+            }
+        }
+        if (t != null && t != Thread.currentThread()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                if (!isRelevant(watchService.take())) {
+                    continue;
+                }
+                // Wait until the file has been left alone for a while
+                long deadline = System.nanoTime() + debounceNanos;
+                long wait;
+                while ((wait = deadline - System.nanoTime()) > 0) {
+                    WatchKey key = watchService.poll(wait, TimeUnit.NANOSECONDS);
+                    if (key != null && isRelevant(key)) {
+                        deadline = System.nanoTime() + debounceNanos;
+                    }
+                }
+                try {
+                    if (!closed) {
+                        reload();
+                    }
+                } catch (IOException e) {
+                    // The file might have been deleted or be in the middle of being
+                    // written, we'll keep what we have and try again on the next change
+                } catch (RuntimeException e) {
+                    // The file counts as unread, so the next change retries the reload
+                    reportError(e);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // We're done
+        }
+    }
+
+    private void reportError(RuntimeException e) {
+        Consumer<? super RuntimeException> handler = errorHandler;
+        if (handler != null) {
+            try {
+                handler.accept(e);
+                return;
+            } catch (RuntimeException ex) {
+                e = ex;
+            }
+        }
+        Thread t = Thread.currentThread();
+        t.getUncaughtExceptionHandler().uncaughtException(t, e);
+    }
+
+    private boolean isRelevant(WatchKey key) {
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || file.getFileName().equals(event.context())) {
+                relevant = true;
+            }
+        }
+        key.reset();
+        return relevant;
+    }
+
+    /**
+     * Makes the target contain the same properties, with the same values and comments, as the
+     * source, changing only those properties that are actually different.
+     */
+    static void applyChanges(Properties source, Properties target) {
+        for (String rawKey : source.rawKeySet()) {
+            String key = PropertiesParser.unescape(rawKey);
+            String rawValue = source.getRaw(rawKey);
+            List<String> comment = source.getComment(key);
+            if (!target.containsKey(key)) {
+                target.putRaw(rawKey, rawValue);
+                if (!comment.isEmpty()) {
+                    target.setComment(key, comment);
+                }
+            } else {
+                if (!rawValue.equals(target.getRaw(rawKey))) {
+                    target.putRaw(rawKey, rawValue);
+                }
+                if (!comment.equals(target.getComment(key))) {
+                    target.setComment(key, comment);
+                }
+            }
+        }
+        List<String> removed = new ArrayList<>();
+        for (String key : target.keySet()) {
+            if (!source.containsKey(key)) {
+                removed.add(key);
+            }
+        }
+        for (String key : removed) {
+            target.remove(key);
+        }
+    }
+}
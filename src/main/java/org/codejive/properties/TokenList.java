@@ -0,0 +1,629 @@
+package org.codejive.properties;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * The list of tokens that backs a <code>Properties</code> object. Besides holding the tokens it
+ * maintains an index from (unescaped) key to the position of the first <code>KEY</code> token with
+ * that key, so key lookups don't have to scan the entire list.
+ *
+ * <p>The tokens are stored in a sequence of fixed-capacity chunks, so inserting or removing a token
+ * in the middle of a large list only shifts the tokens within a single chunk (and updates the start
+ * positions of the chunks that follow) instead of the entire tail of the list.
+ *
+ * <p>The index doesn't store positions, which would change with every insert or removal before
+ * them, but the <code>KEY</code> token itself together with the chunk that contains it. The
+ * position then is the start of that chunk plus the offset of the token within it, which only
+ * takes a scan of a single chunk at most. Inserting or removing a token in the middle of the list
+ * therefore only updates the entries of the keys involved and of the tokens that move to another
+ * chunk. Tokens that get appended, like when loading, are only added to the index on the next
+ * lookup.
+ */
+class TokenList extends AbstractList<PropertiesParser.Token> implements RandomAccess {
+    static final int CHUNK_CAPACITY = 512;
+
+    private Chunk[] chunks;
+    private int chunkCount;
+    private int size;
+    // The chunk that was accessed last, makes sequential access cheap
+    private int lastChunk;
+
+    private final HashMap<String, Key> keys;
+    // Tokens from this position onwards were appended and are not in the index yet
+    private int indexed;
+    // The number of tokens that were added to the index by re-scans
+    private long scanned;
+    // Incremented on every change to the list, including replacing tokens
+    private long version;
+    // Incremented on every change that might have changed the set of keys
+    private long keysVersion;
+    // Incremented along with version
+    private SharedVersion[] shared = new SharedVersion[0];
+
+    /**
+     * A version number that is shared by several lists. Each of them increments it along with its
+     * own version, so it changes whenever any of those lists change.
+     */
+    static class SharedVersion {
+        private long value;
+
+        long get() {
+            return value;
+        }
+    }
+
+    private static class Chunk {
+        final PropertiesParser.Token[] tokens = new PropertiesParser.Token[CHUNK_CAPACITY];
+        int size;
+        // Position of the chunk's first token within the entire list
+        int start;
+    }
+
+    // The index entry of a key, pointing at the first KEY token with that key
+    private static class Key {
+        PropertiesParser.Token token;
+        Chunk chunk;
+        // Where the token was last seen within its chunk, only used as a hint
+        int offset;
+        // The number of KEY tokens in the list with this key
+        int count;
+
+        Key(PropertiesParser.Token token, Chunk chunk, int offset, int count) {
+            this.token = token;
+            this.chunk = chunk;
+            this.offset = offset;
+            this.count = count;
+        }
+    }
+
+    TokenList() {
+        chunks = new Chunk[] {new Chunk()};
+        chunkCount = 1;
+        keys = new HashMap<>();
+    }
+
+    /**
+     * Creates a copy of the given list, including its key index. Tokens are immutable so they are
+     * shared between both lists.
+     *
+     * @param other The list to copy
+     */
+    TokenList(TokenList other) {
+        chunks = new Chunk[Math.max(other.chunkCount, 1)];
+        IdentityHashMap<Chunk, Chunk> copies = new IdentityHashMap<>();
+        for (int i = 0; i < other.chunkCount; i++) {
+            Chunk o = other.chunks[i];
+            Chunk c = new Chunk();
+            System.arraycopy(o.tokens, 0, c.tokens, 0, o.size);
+            c.size = o.size;
+            c.start = o.start;
+            chunks[i] = c;
+            copies.put(o, c);
+        }
+        chunkCount = other.chunkCount;
+        size = other.size;
+        keys = new HashMap<>();
+        for (Map.Entry<String, Key> e : other.keys.entrySet()) {
+            Key k = e.getValue();
+            keys.put(e.getKey(), new Key(k.token, copies.get(k.chunk), k.offset, k.count));
+        }
+        indexed = other.indexed;
+        version = other.version;
+        keysVersion = other.keysVersion;
+    }
+
+    @Override
+    public PropertiesParser.Token get(int index) {
+        checkIndex(index, size);
+        Chunk c = chunks[chunkFor(index)];
+        return c.tokens[index - c.start];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public PropertiesParser.Token set(int index, PropertiesParser.Token token) {
+        checkIndex(index, size);
+        Chunk c = chunks[chunkFor(index)];
+        int offset = index - c.start;
+        PropertiesParser.Token old = c.tokens[offset];
+        c.tokens[offset] = token;
+        changed();
+        if (old.type != PropertiesParser.Type.KEY && token.type != PropertiesParser.Type.KEY) {
+            return old;
+        }
+        if (old.type == token.type && old.getText().equals(token.getText())) {
+            // Same key, the index only needs to know about the new token
+            Key k = index < indexed ? keys.get(old.getText()) : null;
+            if (k != null && k.token == old) {
+                k.token = token;
+            }
+            return old;
+        }
+        keysVersion++;
+        if (index < indexed) {
+            if (old.type == PropertiesParser.Type.KEY && removedKey(old)) {
+                findFirstKeys(index, 1);
+            }
+            if (token.type == PropertiesParser.Type.KEY) {
+                addedKey(token, c, offset);
+            }
+        }
+        return old;
+    }
+
+    @Override
+    public void add(int index, PropertiesParser.Token token) {
+        checkIndex(index, size + 1);
+        boolean indexing = index < indexed;
+        if (indexing) {
+            reindex();
+        }
+        int ci = index == size ? chunkCount - 1 : chunkFor(index);
+        Chunk c = chunks[ci];
+        if (c.size == CHUNK_CAPACITY) {
+            split(ci);
+            if (index - c.start > c.size) {
+                c = chunks[++ci];
+            }
+        }
+        int offset = index - c.start;
+        System.arraycopy(c.tokens, offset, c.tokens, offset + 1, c.size - offset);
+        c.tokens[offset] = token;
+        c.size++;
+        moveStarts(ci + 1, 1);
+        size++;
+        modCount++;
+        changed();
+        if (indexing) {
+            indexed = size;
+        }
+        if (token.type == PropertiesParser.Type.KEY) {
+            keysVersion++;
+            if (indexing) {
+                addedKey(token, c, offset);
+            }
+        }
+    }
+
+    @Override
+    public PropertiesParser.Token remove(int index) {
+        checkIndex(index, size);
+        boolean indexing = index < indexed;
+        if (indexing) {
+            reindex();
+        }
+        int ci = chunkFor(index);
+        Chunk c = chunks[ci];
+        int offset = index - c.start;
+        PropertiesParser.Token old = c.tokens[offset];
+        System.arraycopy(c.tokens, offset + 1, c.tokens, offset, c.size - offset - 1);
+        c.tokens[--c.size] = null;
+        moveStarts(ci + 1, -1);
+        if (c.size == 0 && chunkCount > 1) {
+            removeChunk(ci);
+        }
+        size--;
+        modCount++;
+        changed();
+        if (indexing) {
+            indexed = size;
+        }
+        if (old.type == PropertiesParser.Type.KEY) {
+            keysVersion++;
+            if (indexing && removedKey(old)) {
+                findFirstKeys(index, 1);
+            }
+        }
+        return old;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends PropertiesParser.Token> ts) {
+        // Appending never moves existing tokens, so the index stays valid
+        for (PropertiesParser.Token token : ts) {
+            Chunk c = chunks[chunkCount - 1];
+            if (c.size == CHUNK_CAPACITY) {
+                c = newChunk(chunkCount, size);
+            }
+            c.tokens[c.size++] = token;
+            size++;
+            if (token.type == PropertiesParser.Type.KEY) {
+                keysVersion++;
+            }
+        }
+        modCount++;
+        changed();
+        return !ts.isEmpty();
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends PropertiesParser.Token> ts) {
+        checkIndex(index, size + 1);
+        if (index == size) {
+            return addAll(ts);
+        }
+        if (ts.isEmpty()) {
+            return false;
+        }
+        boolean indexing = index < indexed;
+        if (indexing) {
+            reindex();
+        }
+        // Cut the chunk at the insertion point, fill it up with the new tokens, adding
+        // chunks as needed, and then put the tokens that followed the cut back after them
+        int ci = chunkFor(index);
+        int firstChunk = ci;
+        Chunk c = chunks[ci];
+        int offset = index - c.start;
+        PropertiesParser.Token[] tail = Arrays.copyOfRange(c.tokens, offset, c.size);
+        Arrays.fill(c.tokens, offset, c.size, null);
+        c.size = offset;
+        int pos = index;
+        for (PropertiesParser.Token token : ts) {
+            if (c.size == CHUNK_CAPACITY) {
+                c = newChunk(++ci, pos);
+            }
+            c.tokens[c.size++] = token;
+            pos++;
+            if (token.type == PropertiesParser.Type.KEY) {
+                keysVersion++;
+            }
+        }
+        int added = pos - index;
+        for (PropertiesParser.Token token : tail) {
+            if (c.size == CHUNK_CAPACITY) {
+                c = newChunk(++ci, pos);
+            }
+            c.tokens[c.size++] = token;
+            pos++;
+        }
+        moveStarts(ci + 1, added);
+        size += added;
+        modCount++;
+        changed();
+        if (indexing) {
+            indexed = size;
+            // The tokens that followed the cut might have moved to other chunks
+            for (int i = firstChunk; i <= ci; i++) {
+                claim(chunks[i], 0, chunks[i].size);
+            }
+            for (int i = firstChunk; i <= ci; i++) {
+                Chunk n = chunks[i];
+                int from = Math.max(index - n.start, 0);
+                int to = Math.min(index + added - n.start, n.size);
+                for (int o = from; o < to; o++) {
+                    if (n.tokens[o].type == PropertiesParser.Type.KEY) {
+                        addedKey(n.tokens[o], n, o);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes the tokens at all the given positions. Instead of removing them one by one, the
+     * remaining tokens are moved to their new positions in a single pass, filling up the chunks as
+     * they go along.
+     *
+     * @param marked The positions of the tokens to remove
+     */
+    void removeMarked(BitSet marked) {
+        int first = marked.nextSetBit(0);
+        if (first < 0 || first >= size) {
+            return;
+        }
+        boolean indexing = first < indexed;
+        if (indexing) {
+            reindex();
+        }
+        int ci = chunkFor(first);
+        // The chunk and offset the next remaining token gets written to, which never
+        // get ahead of the token being read, so the tokens can be moved in place
+        int wc = ci;
+        Chunk w = chunks[ci];
+        int wo = first - w.start;
+        int pos = first;
+        int removed = 0;
+        int orphaned = 0;
+        for (int rc = ci; rc < chunkCount; rc++) {
+            Chunk r = chunks[rc];
+            int rsize = r.size;
+            for (int ro = pos - r.start; ro < rsize; ro++, pos++) {
+                PropertiesParser.Token token = r.tokens[ro];
+                if (marked.get(pos)) {
+                    if (token.type == PropertiesParser.Type.KEY) {
+                        keysVersion++;
+                        if (indexing && removedKey(token)) {
+                            orphaned++;
+                        }
+                    }
+                    removed++;
+                } else {
+                    if (wo == CHUNK_CAPACITY) {
+                        w.size = CHUNK_CAPACITY;
+                        w = chunks[++wc];
+                        w.start = chunks[wc - 1].start + CHUNK_CAPACITY;
+                        wo = 0;
+                    }
+                    w.tokens[wo++] = token;
+                }
+            }
+        }
+        w.size = wo;
+        Arrays.fill(w.tokens, wo, CHUNK_CAPACITY, null);
+        Arrays.fill(chunks, wc + 1, chunkCount, null);
+        chunkCount = wc + 1;
+        if (w.size == 0 && chunkCount > 1) {
+            chunks[--chunkCount] = null;
+        }
+        lastChunk = 0;
+        size -= removed;
+        modCount++;
+        changed();
+        if (indexing) {
+            indexed = size;
+            for (int i = ci; i < chunkCount; i++) {
+                claim(chunks[i], 0, chunks[i].size);
+            }
+            findFirstKeys(first, orphaned);
+        }
+    }
+
+    @Override
+    public void clear() {
+        chunks = new Chunk[] {new Chunk()};
+        chunkCount = 1;
+        lastChunk = 0;
+        size = 0;
+        keys.clear();
+        modCount++;
+        changed();
+        keysVersion++;
+        indexed = 0;
+    }
+
+    /**
+     * Returns the position of the first <code>KEY</code> token whose text is equal to the given
+     * key or -1 if no such token exists.
+     *
+     * @param key The (unescaped) key to look for
+     * @return The position of the key's token or -1
+     */
+    int indexOfKey(String key) {
+        reindex();
+        Key k = keys.get(key);
+        return k != null ? position(k) : -1;
+    }
+
+    private int position(Key k) {
+        Chunk c = k.chunk;
+        if (k.offset >= c.size || c.tokens[k.offset] != k.token) {
+            int i = 0;
+            while (c.tokens[i] != k.token) {
+                i++;
+            }
+            k.offset = i;
+        }
+        return c.start + k.offset;
+    }
+
+    // Adds a KEY token that was inserted at the given offset in the given chunk to the index
+    private void addedKey(PropertiesParser.Token token, Chunk c, int offset) {
+        Key k = keys.get(token.getText());
+        if (k == null) {
+            keys.put(token.getText(), new Key(token, c, offset, 1));
+        } else {
+            k.count++;
+            if (c.start + offset < position(k)) {
+                k.token = token;
+                k.chunk = c;
+                k.offset = offset;
+            }
+        }
+    }
+
+    // Removes a KEY token from the index, returns true if it was the first token for its key
+    // while others remain, in which case its entry is left without a token for the time being
+    private boolean removedKey(PropertiesParser.Token token) {
+        Key k = keys.get(token.getText());
+        if (k == null) {
+            return false;
+        }
+        if (--k.count == 0) {
+            keys.remove(token.getText());
+            return false;
+        }
+        if (k.token == token) {
+            k.token = null;
+            return true;
+        }
+        return false;
+    }
+
+    // Points the given number of entries that were left without a token at the first KEY token
+    // for their key, which can only be found at or after the given position
+    private void findFirstKeys(int from, int count) {
+        if (count == 0 || from >= size) {
+            return;
+        }
+        for (int ci = chunkFor(from); ci < chunkCount; ci++) {
+            Chunk c = chunks[ci];
+            for (int i = Math.max(from - c.start, 0); i < c.size; i++) {
+                PropertiesParser.Token token = c.tokens[i];
+                if (token.type == PropertiesParser.Type.KEY) {
+                    Key k = keys.get(token.getText());
+                    if (k != null && k.token == null) {
+                        k.token = token;
+                        k.chunk = c;
+                        k.offset = i;
+                        if (--count == 0) {
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Updates the entries of the KEY tokens in the given part of the chunk, which might have
+    // been moved there from another chunk
+    private void claim(Chunk c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            PropertiesParser.Token token = c.tokens[i];
+            if (token.type == PropertiesParser.Type.KEY) {
+                Key k = keys.get(token.getText());
+                if (k != null && k.token == token) {
+                    k.chunk = c;
+                    k.offset = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes the list increment the given version, from now on, whenever it gets changed. A list
+     * can share any number of versions.
+     *
+     * @param version The shared version
+     */
+    void share(SharedVersion version) {
+        shared = Arrays.copyOf(shared, shared.length + 1);
+        shared[shared.length - 1] = version;
+    }
+
+    private void changed() {
+        version++;
+        for (SharedVersion s : shared) {
+            s.value++;
+        }
+    }
+
+    /**
+     * Returns a number that changes each time the list gets changed in any way.
+     *
+     * @return The list's version
+     */
+    long version() {
+        return version;
+    }
+
+    /**
+     * Returns a number that changes each time tokens get added, removed or replaced in a way that
+     * might change the set of keys in the list.
+     *
+     * @return The version of the list's keys
+     */
+    long keysVersion() {
+        return keysVersion;
+    }
+
+    /**
+     * Brings the key index up-to-date by adding any tokens that were appended since the last
+     * lookup. Once this has been done lookups won't modify the index anymore until the list itself
+     * gets changed again.
+     */
+    void reindex() {
+        if (indexed < size) {
+            for (int ci = chunkFor(indexed); ci < chunkCount; ci++) {
+                Chunk c = chunks[ci];
+                for (int i = Math.max(indexed - c.start, 0); i < c.size; i++) {
+                    PropertiesParser.Token token = c.tokens[i];
+                    if (token.type == PropertiesParser.Type.KEY) {
+                        // Appended tokens never come before the ones already in the index
+                        Key k = keys.get(token.getText());
+                        if (k == null) {
+                            keys.put(token.getText(), new Key(token, c, i, 1));
+                        } else {
+                            k.count++;
+                        }
+                    }
+                }
+            }
+            scanned += size - indexed;
+            indexed = size;
+        }
+    }
+
+    /**
+     * Returns the total number of tokens that were added to the key index by re-scanning the list.
+     *
+     * @return the number of scanned tokens
+     */
+    long scanned() {
+        return scanned;
+    }
+
+    // Returns the index of the chunk containing the token at the given position
+    private int chunkFor(int index) {
+        Chunk c = chunks[lastChunk];
+        if (index >= c.start && index < c.start + c.size) {
+            return lastChunk;
+        }
+        int lo = 0;
+        int hi = chunkCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (chunks[mid].start <= index) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        lastChunk = lo;
+        return lo;
+    }
+
+    // Moves the second half of the given chunk into a new chunk directly following it
+    private void split(int ci) {
+        Chunk c = chunks[ci];
+        int half = c.size / 2;
+        Chunk n = newChunk(ci + 1, c.start + half);
+        System.arraycopy(c.tokens, half, n.tokens, 0, c.size - half);
+        Arrays.fill(c.tokens, half, c.size, null);
+        n.size = c.size - half;
+        c.size = half;
+        claim(n, 0, n.size);
+    }
+
+    private Chunk newChunk(int ci, int start) {
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+        }
+        System.arraycopy(chunks, ci, chunks, ci + 1, chunkCount - ci);
+        Chunk n = new Chunk();
+        n.start = start;
+        chunks[ci] = n;
+        chunkCount++;
+        return n;
+    }
+
+    private void removeChunk(int ci) {
+        System.arraycopy(chunks, ci + 1, chunks, ci, chunkCount - ci - 1);
+        chunks[--chunkCount] = null;
+        lastChunk = 0;
+    }
+
+    private void moveStarts(int from, int delta) {
+        for (int i = from; i < chunkCount; i++) {
+            chunks[i].start += delta;
+        }
+    }
+
+    private static void checkIndex(int index, int limit) {
+        if (index < 0 || index >= limit) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (limit));
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package org.codejive.properties;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generates realistic properties files for tests and benchmarks. The output is completely
+ * determined by the settings and the seed, so the same generator configuration always produces the
+ * exact same file. All settings that are ratios are probabilities between 0 and 1 that are applied
+ * per entry (or per line ending in the case of <code>crlf</code>).
+ *
+ * <pre>
+ * String text = new PropertiesGenerator(42).entries(100_000).commentDensity(0.3).generate();
+ * </pre>
+ */
+public class PropertiesGenerator {
+    private static final String[] SEGMENTS = {
+        "server", "http", "db", "cache", "pool", "security", "auth", "logging", "metrics", "queue",
+        "feature", "flags", "client", "timeout", "retry", "region", "cluster", "host", "ui", "i18n"
+    };
+    private static final String[] WORDS = {
+        "alpha", "enabled", "localhost", "value", "true", "false", "30s", "info", "default", "none",
+        "primary", "secondary", "https://example.com/path", "/var/lib/data", "utf-8", "max"
+    };
+    private static final String[] SEPARATORS = {"=", "=", " = ", ":", " : ", " "};
+    private static final String[] UNICODE = {
+        "\u00e9t\u00e9", "\u00fcber", "\u4e2d\u6587", "\u65e5\u672c\u8a9e", "\u0440\u0443\u0441",
+        "\u03b1\u03b2\u03b3", "\ud83d\ude00"
+    };
+
+    private final long seed;
+    private int entries = 1000;
+    private double commentDensity = 0.2;
+    private double blankLineDensity = 0.1;
+    private double escapeRatio = 0.05;
+    private double unicodeRatio = 0.05;
+    private double unicodeEscapeRatio = 0.5;
+    private double continuationRatio = 0.02;
+    private double crlfRatio = 0.0;
+    private int prefixes = 50;
+    private double prefixSkew = 2.0;
+
+    /**
+     * Creates a generator with default settings whose output is determined by the given seed.
+     *
+     * @param seed the seed for the random number generator
+     */
+    public PropertiesGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /** Sets the number of key/value pairs to generate (default 1000). */
+    public PropertiesGenerator entries(int entries) {
+        this.entries = entries;
+        return this;
+    }
+
+    /** Sets the ratio of entries that are preceded by one or more comment lines (default 0.2). */
+    public PropertiesGenerator commentDensity(double ratio) {
+        this.commentDensity = ratio;
+        return this;
+    }
+
+    /** Sets the ratio of entries that are preceded by an empty line (default 0.1). */
+    public PropertiesGenerator blankLineDensity(double ratio) {
+        this.blankLineDensity = ratio;
+        return this;
+    }
+
+    /**
+     * Sets the ratio of entries that contain escape sequences like <code>\t</code>, <code>\n</code>
+     * or escaped spaces in their key and/or value (default 0.05).
+     */
+    public PropertiesGenerator escapeRatio(double ratio) {
+        this.escapeRatio = ratio;
+        return this;
+    }
+
+    /**
+     * Sets the ratio of values that contain non-ASCII characters (default 0.05) and the ratio of
+     * those that will be written as <code>&#92;uXXXX</code> escapes instead of as-is (default 0.5).
+     */
+    public PropertiesGenerator unicodeRatio(double ratio, double escapedRatio) {
+        this.unicodeRatio = ratio;
+        this.unicodeEscapeRatio = escapedRatio;
+        return this;
+    }
+
+    /** Sets the ratio of values that are spread over multiple lines (default 0.02). */
+    public PropertiesGenerator continuationRatio(double ratio) {
+        this.continuationRatio = ratio;
+        return this;
+    }
+
+    /** Sets the ratio of line endings that will be CRLF instead of LF (default 0). */
+    public PropertiesGenerator crlfRatio(double ratio) {
+        this.crlfRatio = ratio;
+        return this;
+    }
+
+    /**
+     * Sets the number of distinct key prefixes and how skewed their use is. A skew of 1 uses all
+     * prefixes equally often, higher values make the first prefixes increasingly more popular
+     * (defaults 50 and 2.0).
+     */
+    public PropertiesGenerator keyPrefixes(int prefixes, double skew) {
+        this.prefixes = prefixes;
+        this.prefixSkew = skew;
+        return this;
+    }
+
+    /**
+     * Returns the generated properties file as a string.
+     *
+     * @return the file's contents
+     */
+    public String generate() {
+        StringBuilder sb = new StringBuilder(entries * 48);
+        try {
+            generate(sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the generated properties file to the given path, using UTF-8 encoding.
+     *
+     * @param file the path of the file to write
+     * @throws IOException Thrown when any IO error occurs during writing
+     */
+    public void generate(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            generate(out);
+        }
+    }
+
+    /**
+     * Writes the generated properties file to the given output.
+     *
+     * @param out the output to write to
+     * @throws IOException Thrown when any IO error occurs during writing
+     */
+    public void generate(Appendable out) throws IOException {
+        Random rnd = new Random(seed);
+        out.append("# Generated properties (seed ").append(Long.toString(seed)).append(")");
+        eol(out, rnd);
+        eol(out, rnd);
+        for (int i = 0; i < entries; i++) {
+            if (rnd.nextDouble() < blankLineDensity) {
+                eol(out, rnd);
+            }
+            if (rnd.nextDouble() < commentDensity) {
+                String prefix = rnd.nextInt(4) == 0 ? "! " : "# ";
+                for (int lines = 1 + rnd.nextInt(3); lines > 0; lines--) {
+                    out.append(prefix).append(sentence(rnd, 2 + rnd.nextInt(8)));
+                    eol(out, rnd);
+                }
+            }
+            out.append(key(rnd, i));
+            out.append(SEPARATORS[rnd.nextInt(SEPARATORS.length)]);
+            value(out, rnd);
+            eol(out, rnd);
+        }
+    }
+
+    private String key(Random rnd, int index) {
+        // Pick a prefix with a power-law distribution, lower indices being more popular
+        int p = (int) (prefixes * Math.pow(rnd.nextDouble(), prefixSkew));
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < 3 && (i == 0 || p > 0); i++) {
+            key.append(SEGMENTS[p % SEGMENTS.length]).append('.');
+            p /= SEGMENTS.length;
+        }
+        key.append(WORDS[rnd.nextInt(WORDS.length)].replaceAll("[^a-z0-9]", ""));
+        if (rnd.nextDouble() < escapeRatio) {
+            key.append("\\ with\\ spaces\\:");
+        }
+        return key.append(index).toString();
+    }
+
+    private void value(Appendable out, Random rnd) throws IOException {
+        out.append(sentence(rnd, 1 + rnd.nextInt(4)));
+        if (rnd.nextDouble() < escapeRatio) {
+            out.append(rnd.nextBoolean() ? "\\tTabbed\\nNewline" : " C:\\\\path\\\\to\\\\file");
+        }
+        if (rnd.nextDouble() < unicodeRatio) {
+            String text = UNICODE[rnd.nextInt(UNICODE.length)];
+            out.append(' ');
+            if (rnd.nextDouble() < unicodeEscapeRatio) {
+                for (int i = 0; i < text.length(); i++) {
+                    out.append(String.format("\\u%04x", (int) text.charAt(i)));
+                }
+            } else {
+                out.append(text);
+            }
+        }
+        if (rnd.nextDouble() < continuationRatio) {
+            for (int lines = 1 + rnd.nextInt(3); lines > 0; lines--) {
+                out.append(" \\");
+                eol(out, rnd);
+                out.append("    ").append(sentence(rnd, 1 + rnd.nextInt(4)));
+            }
+        }
+    }
+
+    private static String sentence(Random rnd, int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[rnd.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private void eol(Appendable out, Random rnd) throws IOException {
+        out.append(crlfRatio > 0 && rnd.nextDouble() < crlfRatio ? "\r\n" : "\n");
+    }
+}
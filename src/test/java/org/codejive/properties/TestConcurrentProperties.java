@@ -0,0 +1,142 @@
+package org.codejive.properties;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+public class TestConcurrentProperties {
+    @Test
+    void testReadWrite() throws IOException, URISyntaxException {
+        Properties p = Properties.loadProperties(getResource("/test.properties"));
+        ConcurrentProperties cp = new ConcurrentProperties(p);
+        assertThat(cp.get("one")).isEqualTo("simple");
+        assertThat(cp.getComment("one")).containsExactly("! comment3");
+        cp.put("one", "changed");
+        cp.setComment("one", "# new comment");
+        cp.put("five", "5");
+        cp.remove("two");
+        assertThat(cp.remove("unknown")).isNull();
+        assertThat(cp.getProperty("one")).isEqualTo("changed");
+        assertThat(cp.getComment("one")).containsExactly("# new comment");
+        assertThat(cp.getRaw("five")).isEqualTo("5");
+        assertThat(cp.containsKey("two")).isFalse();
+        // The original isn't affected
+        assertThat(p.get("one")).isEqualTo("simple");
+        assertThat(p.containsKey("five")).isFalse();
+        // And the result is identical to making the same changes directly
+        p.put("one", "changed");
+        p.setComment("one", "# new comment");
+        p.put("five", "5");
+        p.remove("two");
+        assertThat(cp.toString()).isEqualTo(p.toString());
+    }
+
+    @Test
+    void testSnapshotIsolation() throws IOException, URISyntaxException {
+        ConcurrentProperties cp =
+                new ConcurrentProperties(Properties.loadProperties(getResource("/test.properties")));
+        Properties snap = cp.snapshot();
+        Iterator<Map.Entry<String, String>> iter = cp.entrySet().iterator();
+        cp.clear();
+        assertThat(cp).isEmpty();
+        assertThat(snap.get("one")).isEqualTo("simple");
+        // Iterators keep on working with the state that was current when they were created
+        assertThat(iter.next().getKey()).isEqualTo("one");
+        snap.put("one", "changed");
+        assertThat(cp.get("one")).isNull();
+    }
+
+    @Test
+    void testBulkRemove() throws IOException, URISyntaxException {
+        Properties p = Properties.loadProperties(getResource("/test.properties"));
+        ConcurrentProperties cp = new ConcurrentProperties(p);
+        assertThat(cp.keySet().removeIf(k -> k.startsWith("t"))).isTrue();
+        assertThat(cp.entrySet().removeIf(e -> e.getValue().equals("simple"))).isTrue();
+        assertThat(cp.removeAll(Arrays.asList("altsep", "missing"))).isTrue();
+        assertThat(cp.keySet().retainAll(Arrays.asList("multiline", "key.4"))).isTrue();
+        p.removeAll(Arrays.asList("two", "three", "one", "altsep", " with spaces"));
+        assertThat(cp.toString()).isEqualTo(p.toString());
+        assertThat(cp.keySet()).containsExactly("multiline", "key.4");
+    }
+
+    @Test
+    void testUpdate() throws IOException {
+        ConcurrentProperties cp = new ConcurrentProperties();
+        cp.load(new StringReader("a=1\nb=2\n"));
+        cp.update(
+                p -> {
+                    p.put("a", "one");
+                    p.remove("b");
+                    p.putCommented("c", "3", "comment");
+                });
+        assertThat(cp.get("a")).isEqualTo("one");
+        assertThat(cp.containsKey("b")).isFalse();
+        assertThat(cp.getComment("c")).containsExactly("# comment");
+        // A failing update leaves everything untouched
+        assertThatThrownBy(
+                        () ->
+                                cp.update(
+                                        p -> {
+                                            p.put("a", "changed");
+                                            p.setComment("unknown", "comment");
+                                        }))
+                .isInstanceOf(java.util.NoSuchElementException.class);
+        assertThat(cp.get("a")).isEqualTo("one");
+    }
+
+    @Test
+    void testConcurrentReadersAndWriters() throws InterruptedException {
+        ConcurrentProperties cp = new ConcurrentProperties();
+        cp.update(
+                p -> {
+                    p.put("first", "value");
+                    for (int i = 0; i < 100; i++) {
+                        p.putCommented("key" + i, "0", "comment " + i);
+                    }
+                });
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int id = t;
+            threads.add(
+                    new Thread(
+                            () -> {
+                                try {
+                                    for (int i = 0; i < 2000; i++) {
+                                        String key = "key" + (i % 100);
+                                        if (id == 0) {
+                                            cp.put(key, Integer.toString(i));
+                                        } else {
+                                            assertThat(cp.get(key)).isNotNull();
+                                            assertThat(cp.getComment(key))
+                                                    .containsExactly("# comment " + (i % 100));
+                                        }
+                                    }
+                                } catch (Throwable e) {
+                                    error.set(e);
+                                }
+                            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertThat(error.get()).isNull();
+        assertThat(cp).hasSize(101);
+    }
+
+    private Path getResource(String name) throws URISyntaxException {
+        return Paths.get(getClass().getResource(name).toURI());
+    }
+}
@@ -4,11 +4,18 @@ import static org.assertj.core.api.Assertions.*;
 
 import java.io.*;
 import java.net.URISyntaxException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import org.junit.jupiter.api.Test;
 
 public class TestProperties {
@@ -42,6 +49,230 @@ public class TestProperties {
                         "\\u1234");
     }
 
+    @Test
+    void testLoadMapped() throws IOException, URISyntaxException {
+        Properties p = new Properties();
+        p.loadMapped(getResource("/test.properties"));
+        Properties expected = Properties.loadProperties(getResource("/test.properties"));
+        assertThat(p).isEqualTo(expected);
+        assertThat(p.toString()).isEqualTo(expected.toString());
+    }
+
+    @Test
+    void testLoadMappedCharsets() throws IOException {
+        String text =
+                new PropertiesGenerator(3)
+                        .entries(3000)
+                        .unicodeRatio(0.3, 0.5)
+                        .crlfRatio(0.5)
+                        .generate();
+        Path f = Files.createTempFile("test-mapped", ".properties");
+        try {
+            Files.write(f, text.getBytes(StandardCharsets.UTF_8));
+            Properties p = new Properties();
+            p.loadMapped(f);
+            assertThat(p.toString()).isEqualTo(text);
+
+            String latin = "key=caf\u00e9\nother = na\u00efve";
+            Files.write(f, latin.getBytes(StandardCharsets.ISO_8859_1));
+            p = new Properties();
+            p.loadMapped(f, StandardCharsets.ISO_8859_1);
+            assertThat(p.get("other")).isEqualTo("na\u00efve");
+            assertThat(p.toString()).isEqualTo(latin);
+
+            assertThatThrownBy(() -> new Properties().loadMapped(f))
+                    .isInstanceOf(CharacterCodingException.class);
+
+            Files.write(f, "key=caf\u00e9".getBytes(StandardCharsets.UTF_8));
+            assertThatThrownBy(() -> new Properties().loadMapped(f, StandardCharsets.US_ASCII))
+                    .isInstanceOf(CharacterCodingException.class);
+            Files.write(f, "key=cafe".getBytes(StandardCharsets.US_ASCII));
+            p = new Properties();
+            p.loadMapped(f, StandardCharsets.US_ASCII);
+            assertThat(p.get("key")).isEqualTo("cafe");
+        } finally {
+            Files.delete(f);
+        }
+    }
+
+    @Test
+    void testLoadFiltered() throws IOException, URISyntaxException {
+        Properties p = new Properties();
+        p.load(getResource("/test.properties"), Properties.keyPrefixFilter("t", " with"));
+        assertThat(p.keySet()).containsExactly("two", "three", " with spaces");
+        assertThat(p.get("three")).isEqualTo("and escapes\n\t\r\f");
+        assertThat(p.getComment("three"))
+                .containsExactly("# another comment", "! and a comment", "! block");
+        assertThat(p.toString())
+                .isEqualTo(
+                        "two=value containing spaces\n"
+                                + "# another comment\n"
+                                + "! and a comment\n"
+                                + "! block\n"
+                                + "three=and escapes\\n\\t\\r\\f\n"
+                                + "\\ with\\ spaces   =    everywhere  \n");
+
+        p = new Properties();
+        p.load(
+                new StringReader("a=1\n\n# free\n\nb.c = 2\nb.d:\\\n  3\n"),
+                key -> key.length() == 3);
+        assertThat(p.keySet()).containsExactly("b.c", "b.d");
+        assertThat(p.get("b.d")).isEqualTo("3");
+        assertThat(p.getComment("b.c")).isEmpty();
+
+        // The comment block of the first accepted key ends up at the very start
+        String text = "a=1\n# c1\n# c2\nserver.k=v\n";
+        p = new Properties();
+        p.load(new StringReader(text), Properties.keyPrefixFilter("server."));
+        Properties full = Properties.loadProperties(new StringReader(text));
+        assertThat(p.getComment("server.k")).containsExactly("# c1", "# c2");
+        assertThat(p.getComment("server.k")).isEqualTo(full.getComment("server.k"));
+    }
+
+    @Test
+    void testSnapshot() throws IOException, URISyntaxException {
+        Properties p = Properties.loadProperties(getResource("/test.properties"));
+        p.put("new", "value with \u00e9");
+        p.setComment("two", "# changed comment");
+        Path f = Files.createTempFile("test-snapshot", ".bin");
+        try {
+            p.storeSnapshot(f);
+            Properties p2 = new Properties();
+            p2.loadSnapshot(f);
+            assertThat(p2.toString()).isEqualTo(p.toString());
+            assertThat(p2).isEqualTo(p);
+            assertThat(p2.getComment("two")).containsExactly("# changed comment");
+            assertThat(p2.getRaw("three")).isEqualTo("and escapes\\n\\t\\r\\f");
+
+            String text =
+                    new PropertiesGenerator(5).entries(2000).unicodeRatio(0.2, 0.5).generate();
+            p = Properties.loadProperties(new StringReader(text));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            p.storeSnapshot(out);
+            p2 = new Properties();
+            p2.loadSnapshot(new ByteArrayInputStream(out.toByteArray()));
+            assertThat(p2.toString()).isEqualTo(text);
+            assertThat(p2).isEqualTo(p);
+
+            Files.write(f, "key=value".getBytes(StandardCharsets.UTF_8));
+            assertThatThrownBy(() -> new Properties().loadSnapshot(f))
+                    .isInstanceOf(IOException.class);
+        } finally {
+            Files.delete(f);
+        }
+    }
+
+    @Test
+    void testLoadParallel() throws IOException {
+        Path f = Files.createTempFile("test-parallel", ".properties");
+        try {
+            // Large enough to get split into several chunks
+            String text =
+                    new PropertiesGenerator(3)
+                            .entries(40000)
+                            .continuationRatio(0.3)
+                            .crlfRatio(0.5)
+                            .generate();
+            Files.write(f, text.getBytes(StandardCharsets.UTF_8));
+            Properties p = new Properties();
+            p.loadParallel(f);
+            assertThat(p.toString()).isEqualTo(text);
+            assertThat(p).isEqualTo(Properties.loadProperties(f));
+
+            // Without any separators the whole file is a single key,
+            // so none of the chunks can be used on their own
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() < 3_000_000) {
+                sb.append("no.separator.here\n");
+            }
+            sb.append("=value");
+            Files.write(f, sb.toString().getBytes(StandardCharsets.UTF_8));
+            p = new Properties();
+            p.loadParallel(f);
+            assertThat(p.size()).isEqualTo(1);
+            assertThat(p.toString()).isEqualTo(sb.toString());
+        } finally {
+            Files.delete(f);
+        }
+    }
+
+    @Test
+    void testLoadCompact() throws IOException, URISyntaxException {
+        Path f = getResource("/test.properties");
+        Properties expected = Properties.loadProperties(f);
+        Properties p = new Properties();
+        p.loadCompact(f);
+        assertThat(p.size()).isEqualTo(expected.size());
+        assertThat(p.get("one")).isEqualTo("simple");
+        assertThat(p.getProperty("three")).isEqualTo(expected.getProperty("three"));
+        assertThat(p.getRaw("three")).isEqualTo("and escapes\\n\\t\\r\\f");
+        assertThat(p.containsKey("missing")).isFalse();
+        assertThat(p.getProperty("missing", "default")).isEqualTo("default");
+        assertThat(p.toString()).isEqualTo(expected.toString());
+
+        // Anything else works on the normal form
+        assertThat(p).isEqualTo(expected);
+        p.put("one", "changed");
+        expected.put("one", "changed");
+        assertThat(p.toString()).isEqualTo(expected.toString());
+
+        String text = new PropertiesGenerator(7).entries(2000).unicodeRatio(0.2, 0.5).generate();
+        expected = Properties.loadProperties(new StringReader(text));
+        p.loadCompact(new StringReader(text));
+        assertThat(p.toString()).isEqualTo(text);
+        for (String key : expected.keySet()) {
+            assertThat(p.get(key)).isEqualTo(expected.get(key));
+        }
+        assertThat(p.keySet()).containsExactly(expected.keySet().toArray(new String[0]));
+
+        // Duplicate keys are loaded normally
+        p.loadCompact(new StringReader("a=1\nb=2\na=3\n"));
+        assertThat(p.get("a")).isEqualTo("3");
+        assertThat(p.toString()).isEqualTo("a=1\nb=2\na=3\n");
+    }
+
+    @Test
+    void testLoadAll() throws IOException {
+        Path dir = Files.createTempDirectory("test-loadall");
+        Path a = dir.resolve("a.properties");
+        Path b = dir.resolve("b.properties");
+        Path sub = Files.createDirectory(dir.resolve("c"));
+        Path c = sub.resolve("c.properties");
+        Path other = dir.resolve("other.txt");
+        try {
+            Files.write(a, "one=a\ntwo=a\nthree=a\n".getBytes(StandardCharsets.UTF_8));
+            Files.write(b, "# b\ntwo=b\nthree=b\n".getBytes(StandardCharsets.UTF_8));
+            Files.write(c, "three=c\n".getBytes(StandardCharsets.UTF_8));
+            Files.write(other, "four=x\n".getBytes(StandardCharsets.UTF_8));
+
+            Map<Path, Properties> all = Properties.loadAll(dir);
+            assertThat(all.keySet()).containsExactly(a, b, c);
+            assertThat(all.get(b).toString()).isEqualTo("# b\ntwo=b\nthree=b\n");
+
+            all = Properties.loadAll(Arrays.asList(c, a));
+            assertThat(all.keySet()).containsExactly(c, a);
+            assertThat(all.get(a).getProperty("one")).isEqualTo("a");
+
+            Properties p = Properties.loadLayered(dir);
+            assertThat(p.getProperty("one")).isEqualTo("a");
+            assertThat(p.getProperty("two")).isEqualTo("b");
+            assertThat(p.getProperty("three")).isEqualTo("c");
+            assertThat(p.getProperty("four")).isNull();
+            assertThat(p.keySet()).containsExactly("three");
+
+            assertThat(Properties.loadLayered(Collections.emptyList())).isEmpty();
+            assertThatThrownBy(() -> Properties.loadAll(Arrays.asList(a, dir.resolve("missing"))))
+                    .isInstanceOf(IOException.class);
+        } finally {
+            Files.delete(c);
+            Files.delete(sub);
+            Files.delete(a);
+            Files.delete(b);
+            Files.delete(other);
+            Files.delete(dir);
+        }
+    }
+
     @Test
     void testStore() throws IOException, URISyntaxException {
         Path f = getResource("/test.properties");
@@ -60,6 +291,41 @@ public class TestProperties {
         assertThat(sw.toString()).isEqualTo(readAll(getResource("/test-storeheader.properties")));
     }
 
+    @Test
+    void testStoreFlushesOnce() throws IOException, URISyntaxException {
+        Path f = getResource("/test.properties");
+        Properties p = Properties.loadProperties(f);
+        StringWriter sw = new StringWriter();
+        int[] flushes = {0};
+        Writer w =
+                new FilterWriter(sw) {
+                    @Override
+                    public void flush() throws IOException {
+                        flushes[0]++;
+                        super.flush();
+                    }
+                };
+        p.store(w, "A header line");
+        assertThat(flushes[0]).isEqualTo(1);
+        assertThat(sw.toString()).isEqualTo(readAll(getResource("/test-storeheader.properties")));
+    }
+
+    @Test
+    void testStoreEncodeUnicode() throws IOException {
+        Properties p = new Properties();
+        p.put("plain", "ascii only");
+        p.put("mixed", "caf\u00e9 \u4e2d\u6587!");
+        p.setComment("mixed", "\u00fcber");
+        StringWriter sw = new StringWriter();
+        p.store(sw, true);
+        assertThat(sw.toString())
+                .isEqualTo("plain=ascii only\n# \\u00fcber\nmixed=caf\\u00e9 \\u4e2d\\u6587!");
+        sw = new StringWriter();
+        p.store(sw, false);
+        assertThat(sw.toString())
+                .isEqualTo("plain=ascii only\n# \u00fcber\nmixed=caf\u00e9 \u4e2d\u6587!");
+    }
+
     @Test
     void testGet() throws IOException, URISyntaxException {
         Properties p = Properties.loadProperties(getResource("/test.properties"));
@@ -110,6 +376,132 @@ public class TestProperties {
         assertThat(sw.toString()).isEqualTo(readAll(getResource("/test-getproperty.properties")));
     }
 
+    @Test
+    void testFlattenAfterChanges() throws IOException, URISyntaxException {
+        Properties pdefdef = new Properties();
+        pdefdef.setProperty("zero", "0");
+        Properties pdef = new Properties(pdefdef);
+        pdef.load(getResource("/test.properties"));
+        Properties p = new Properties(pdef);
+        p.setProperty("five", "5");
+        assertThat(p.stringPropertyNames()).hasSize(9);
+        assertThat(p.stringPropertyNames()).isEqualTo(p.stringPropertyNames());
+        pdefdef.setProperty("six", "6");
+        assertThat(p.stringPropertyNames()).hasSize(10).contains("six");
+        pdef.remove("one");
+        assertThat(p.stringPropertyNames()).hasSize(9).doesNotContain("one");
+        pdef.put("two", "changed");
+        assertThat(p.flatten().get("two")).isEqualTo("changed");
+        p.flatten().clear();
+        assertThat(p.flatten()).hasSize(9);
+        p.clear();
+        assertThat(p.stringPropertyNames()).hasSize(8).doesNotContain("five");
+    }
+
+    @Test
+    void testGetPropertyLayered() {
+        Properties global = new Properties();
+        Properties region = new Properties(global);
+        Properties cluster = new Properties(region);
+        Properties host = new Properties(cluster);
+        global.setProperty("a", "global");
+        global.setProperty("b", "global");
+        region.setProperty("b", "region");
+        host.setProperty("c", "host");
+        assertThat(host.getProperty("a")).isEqualTo("global");
+        assertThat(host.getProperty("b")).isEqualTo("region");
+        assertThat(host.getProperty("c")).isEqualTo("host");
+        assertThat(host.getProperty("d", "none")).isEqualTo("none");
+        cluster.setProperty("a", "cluster");
+        assertThat(host.getProperty("a")).isEqualTo("cluster");
+        assertThat(region.getProperty("a")).isEqualTo("global");
+        region.remove("b");
+        assertThat(host.getProperty("b")).isEqualTo("global");
+        global.setProperty("d", "global");
+        assertThat(host.getProperty("d", "none")).isEqualTo("global");
+        host.setProperty("d", "host");
+        assertThat(host.getProperty("d")).isEqualTo("host");
+        host.remove("d");
+        cluster.clear();
+        assertThat(host.getProperty("a")).isEqualTo("global");
+        assertThat(host.getProperty("d")).isEqualTo("global");
+    }
+
+    @Test
+    void testGetPropertySharedDefaults() throws IOException {
+        Properties base = new Properties();
+        base.loadCompact(new StringReader("a=base\nb=base\n"));
+        Properties left = new Properties(base);
+        Properties right = new Properties(base);
+        Properties leaf = new Properties(left);
+        left.setProperty("b", "left");
+        assertThat(leaf.getProperty("a")).isEqualTo("base");
+        assertThat(leaf.getProperty("b")).isEqualTo("left");
+        assertThat(right.getProperty("b")).isEqualTo("base");
+        right.setProperty("a", "right");
+        leaf.setProperty("c", "leaf");
+        assertThat(leaf.getProperty("a")).isEqualTo("base");
+        assertThat(right.getProperty("a")).isEqualTo("right");
+        base.loadCompact(new StringReader("a=reloaded\n"));
+        assertThat(leaf.getProperty("a")).isEqualTo("reloaded");
+        assertThat(leaf.getProperty("b")).isEqualTo("left");
+        assertThat(right.getProperty("b")).isNull();
+        base.setProperty("d", "base");
+        assertThat(leaf.getProperty("d")).isEqualTo("base");
+        assertThat(left.copy().getProperty("d")).isEqualTo("base");
+    }
+
+    @Test
+    void testGetPropertySiblingDefaults() {
+        Properties base = new Properties();
+        base.setProperty("a", "base");
+        Properties left = new Properties(base);
+        Properties right = new Properties(base);
+        Properties leftLeaf = new Properties(left);
+        Properties rightLeaf = new Properties(right);
+        assertThat(leftLeaf.getProperty("a")).isEqualTo("base");
+        assertThat(rightLeaf.getProperty("a")).isEqualTo("base");
+        Map<String, PropertiesParser.Token> inherited = rightLeaf.inherited();
+        // Changing the other branch doesn't touch what the right side inherits
+        left.setProperty("a", "left");
+        assertThat(leftLeaf.getProperty("a")).isEqualTo("left");
+        assertThat(rightLeaf.getProperty("a")).isEqualTo("base");
+        assertThat(rightLeaf.inherited()).isSameAs(inherited);
+        // But changing the defaults they have in common does
+        base.setProperty("b", "base");
+        assertThat(rightLeaf.getProperty("b")).isEqualTo("base");
+        assertThat(rightLeaf.inherited()).isNotSameAs(inherited);
+    }
+
+    @Test
+    void testKeysWithPrefix() {
+        Properties defs = new Properties();
+        defs.put("server.http.host", "localhost");
+        defs.put("server.http.port", "80");
+        Properties p = new Properties(defs);
+        p.put("server.https.port", "443");
+        p.setProperty("server.http.port", "8080", "# The port");
+        p.put("server.name", "test");
+        p.put("client.timeout", "10");
+        assertThat(p.keysWithPrefix("server.http"))
+                .containsExactly("server.http.port", "server.https.port");
+        assertThat(p.countWithPrefix("server.")).isEqualTo(3);
+        assertThat(p.countWithPrefix("")).isEqualTo(4);
+        assertThat(p.keysWithPrefix("none")).isEmpty();
+
+        Properties sub = p.subProperties("server.http.");
+        assertThat(sub.keySet()).containsExactly("port");
+        assertThat(sub.getProperty("port")).isEqualTo("8080");
+        assertThat(sub.getProperty("host")).isEqualTo("localhost");
+
+        p.remove("server.name");
+        p.put("server.alias", "other");
+        assertThat(p.keysWithPrefix("server."))
+                .containsExactly("server.alias", "server.http.port", "server.https.port");
+        p.clear();
+        assertThat(p.countWithPrefix("")).isEqualTo(0);
+    }
+
     @Test
     void testGetRaw() throws IOException, URISyntaxException {
         Properties p = Properties.loadProperties(getResource("/test.properties"));
@@ -290,6 +682,44 @@ public class TestProperties {
         assertThat(sw.toString()).isEqualTo(readAll(getResource("/test-putnew.properties")));
     }
 
+    @Test
+    void testPutAll() throws IOException, URISyntaxException {
+        Path f = getResource("/test.properties");
+        Properties p = Properties.loadProperties(f);
+        List<PropertiesEvent> events = new ArrayList<>();
+        p.addListener(events::addAll);
+        Map<String, String> m = new LinkedHashMap<>();
+        m.put("five", "5");
+        m.put("one", "changed");
+        m.put("six", "6 with\nnewline");
+        m.put("seven and a half", "7.5");
+        p.putAll(m);
+
+        Properties expected = Properties.loadProperties(f);
+        for (Map.Entry<String, String> e : m.entrySet()) {
+            expected.put(e.getKey(), e.getValue());
+        }
+        assertThat(p.toString()).isEqualTo(expected.toString());
+        assertThat(p.toString()).contains("five=5\nsix=6 with\\nnewline\n");
+        assertThat(p).isEqualTo(expected);
+        assertThat(events)
+                .containsExactly(
+                        PropertiesEvent.added("five", "5"),
+                        PropertiesEvent.changed("one", "simple", "changed"),
+                        PropertiesEvent.added("six", "6 with\nnewline"),
+                        PropertiesEvent.added("seven and a half", "7.5"));
+
+        p = new Properties();
+        p.putAll(m);
+        assertThat(p.keySet()).containsExactly("five", "one", "six", "seven and a half");
+        assertThat(p.toString())
+                .isEqualTo(
+                        "five=5\none=changed\nsix=6 with\\nnewline\n"
+                                + "seven\\ and\\ a\\ half=7.5");
+        assertThatThrownBy(() -> new Properties().putAll(Collections.singletonMap("key", null)))
+                .isInstanceOf(NullPointerException.class);
+    }
+
     @Test
     void testPutFirstWithHeader() throws IOException, URISyntaxException {
         try (StringReader sr = new StringReader("# A header comment")) {
@@ -369,6 +799,73 @@ public class TestProperties {
         assertThat(sw.toString()).isEqualTo(readAll(getResource("/test-removeall.properties")));
     }
 
+    @Test
+    void testKeySetRemoveAll() throws IOException, URISyntaxException {
+        Properties p = Properties.loadProperties(getResource("/test.properties"));
+        List<PropertiesEvent> events = new ArrayList<>();
+        p.addListener(events::addAll);
+        assertThat(p.keySet().removeIf(k -> k.startsWith("t"))).isTrue();
+        Properties expected = Properties.loadProperties(getResource("/test.properties"));
+        expected.removeAll(Arrays.asList("two", "three"));
+        assertThat(p.toString()).isEqualTo(expected.toString());
+        // All removals are reported as a single batch
+        assertThat(events)
+                .containsExactly(
+                        PropertiesEvent.removed("two", "value containing spaces"),
+                        PropertiesEvent.removed("three", "and escapes\n\t\r\f"));
+
+        assertThat(p.keySet().removeAll(Arrays.asList("one", "missing"))).isTrue();
+        assertThat(p.keySet().remove("missing")).isFalse();
+        assertThat(p.keySet().remove("altsep")).isTrue();
+        assertThat(p.keySet().retainAll(Collections.singleton("key.4"))).isTrue();
+        assertThat(p.keySet()).containsExactly("key.4");
+        assertThat(p.keySet().retainAll(Collections.singleton("key.4"))).isFalse();
+        p.keySet().clear();
+        assertThat(p).isEmpty();
+    }
+
+    @Test
+    void testRemoveAllAtOnce() throws IOException, URISyntaxException {
+        Properties p = Properties.loadProperties(getResource("/test.properties"));
+        assertThat(
+                        p.removeAll(
+                                Arrays.asList(
+                                        "one",
+                                        "two",
+                                        "three",
+                                        " with spaces",
+                                        "altsep",
+                                        "multiline",
+                                        "key.4")))
+                .isTrue();
+        StringWriter sw = new StringWriter();
+        p.store(sw);
+        assertThat(sw.toString()).isEqualTo(readAll(getResource("/test-removeall.properties")));
+        assertThat(p.removeAll(Arrays.asList("one", "missing"))).isFalse();
+
+        p = Properties.loadProperties(getResource("/test.properties"));
+        List<PropertiesEvent> events = new ArrayList<>();
+        p.addListener(events::addAll);
+        p.removeAll(Arrays.asList("key.4", "missing", "three", "three"));
+        Properties expected = Properties.loadProperties(getResource("/test.properties"));
+        expected.remove("key.4");
+        expected.remove("three");
+        assertThat(p.toString()).isEqualTo(expected.toString());
+        assertThat(p).isEqualTo(expected);
+        assertThat(events)
+                .containsExactly(
+                        PropertiesEvent.removed("key.4", "\u1234"),
+                        PropertiesEvent.removed("three", "and escapes\n\t\r\f"));
+
+        p.entrySet().removeIf(e -> e.getKey().startsWith("t"));
+        expected.remove("two");
+        assertThat(p.toString()).isEqualTo(expected.toString());
+        p.entrySet().retainAll(Collections.singletonMap("altsep", "value").entrySet());
+        assertThat(p.keySet()).containsExactly("altsep");
+        assertThat(p.toString())
+                .isEqualTo("#comment1\n#  comment2\n\naltsep:value\n# final comment\n");
+    }
+
     @Test
     void testRemoveMiddleIterator() throws IOException, URISyntaxException {
         Properties p = Properties.loadProperties(getResource("/test.properties"));
@@ -384,6 +881,77 @@ public class TestProperties {
         assertThat(sw.toString()).isEqualTo(readAll(getResource("/test-removemiddle.properties")));
     }
 
+    @Test
+    void testLookupAfterEdits() throws IOException, URISyntaxException {
+        Properties p = Properties.loadProperties(getResource("/test.properties"));
+        p.remove("one");
+        p.setComment("two", "new multi", "line", "comment");
+        p.put("three", "replaced");
+        p.put("five", "5");
+        assertThat(p.getRaw("one")).isNull();
+        assertThat(p.getRaw("three")).isEqualTo("replaced");
+        assertThat(p.getRaw("key.4")).isEqualTo("\\u1234");
+        assertThat(p.getRaw("five")).isEqualTo("5");
+        assertThat(p.getComment("two")).containsExactly("# new multi", "# line", "# comment");
+        assertThat(p.getComment("three"))
+                .containsExactly("# another comment", "! and a comment", "! block");
+        p.remove("two");
+        assertThat(p.getRaw("altsep")).isEqualTo("value");
+        assertThat(p.getComment("three"))
+                .containsExactly("# another comment", "! and a comment", "! block");
+    }
+
+    @Test
+    void testEntrySetValue() throws IOException, URISyntaxException {
+        Properties p = Properties.loadProperties(getResource("/test.properties"));
+        for (Map.Entry<String, String> e : p.entrySet()) {
+            if (e.getKey().equals("three")) {
+                assertThat(e.getValue()).isEqualTo("and escapes\n\t\r\f");
+                assertThat(e.setValue("replaced")).isEqualTo("and escapes\n\t\r\f");
+                assertThat(e.getValue()).isEqualTo("replaced");
+            }
+        }
+        assertThat(p.get("three")).isEqualTo("replaced");
+        assertThat(p.getRaw("three")).isEqualTo("replaced");
+        assertThat(p.containsKey("three")).isTrue();
+        assertThat(p.containsKey("unknown")).isFalse();
+    }
+
+    @Test
+    void testReload() throws IOException, URISyntaxException {
+        String text = readAll(getResource("/test.properties"));
+        Properties p = Properties.loadProperties(new StringReader(text));
+        String[] changes = {
+            text.replace("two=value containing spaces", "two=changed\nnew=line"),
+            text.replace("one=simple\n", ""),
+            text.replace("altsep:value", "altsep:value \\"),
+            text.replace("#comment1", "# changed comment"),
+            "",
+            text
+        };
+        for (String changed : changes) {
+            p.reload(new StringReader(changed));
+            Properties expected = Properties.loadProperties(new StringReader(changed));
+            assertThat(p.toString()).isEqualTo(changed);
+            assertThat(p.entrySet()).containsExactly(expected.entrySet().toArray());
+            for (String key : expected.keySet()) {
+                assertThat(p.getComment(key)).isEqualTo(expected.getComment(key));
+            }
+        }
+    }
+
+    @Test
+    void testReloadSuffixMidLine() throws IOException {
+        // The unchanged "dup=2" at the end follows an unfinished escape in the new text
+        Properties p =
+                Properties.loadProperties(new StringReader("  \nu  z=\\\n=\\u0041\ndup=2\n  \n"));
+        String changed = "  \nu  z=a\\\ny=2\\\r\n  3\n=\\u004dup=2\n  \n";
+        p.reload(new StringReader(changed));
+        Properties expected = Properties.loadProperties(new StringReader(changed));
+        assertThat(p.toString()).isEqualTo(changed);
+        assertThat(p.entrySet()).containsExactly(expected.entrySet().toArray());
+    }
+
     @Test
     void testClear() throws IOException, URISyntaxException {
         Properties p = Properties.loadProperties(getResource("/test.properties"));
@@ -0,0 +1,48 @@
+package org.codejive.properties;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class TestPropertiesGenerator {
+    private PropertiesGenerator generator(long seed) {
+        return new PropertiesGenerator(seed)
+                .entries(2000)
+                .commentDensity(0.3)
+                .escapeRatio(0.2)
+                .unicodeRatio(0.2, 0.5)
+                .continuationRatio(0.1)
+                .crlfRatio(0.3);
+    }
+
+    @Test
+    void testDeterministic() {
+        assertThat(generator(1).generate()).isEqualTo(generator(1).generate());
+        assertThat(generator(1).generate()).isNotEqualTo(generator(2).generate());
+    }
+
+    @Test
+    void testRoundTrip() throws IOException {
+        String text = generator(42).generate();
+        Properties p = Properties.loadProperties(new StringReader(text));
+        assertThat(p).size().isEqualTo(2000);
+        StringWriter sw = new StringWriter();
+        p.store(sw, false);
+        assertThat(sw.toString()).isEqualTo(text);
+    }
+
+    @Test
+    void testInteropLoad() throws IOException {
+        String text = generator(7).generate();
+        Properties p = Properties.loadProperties(new StringReader(text));
+        java.util.Properties jup = new java.util.Properties();
+        jup.load(new StringReader(text));
+        Map<Object, Object> expected = new HashMap<>(jup);
+        assertThat(new HashMap<Object, Object>(p)).isEqualTo(expected);
+    }
+}
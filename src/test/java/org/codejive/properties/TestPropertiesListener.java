@@ -0,0 +1,92 @@
+package org.codejive.properties;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class TestPropertiesListener {
+    @Test
+    void testEvents() throws IOException, URISyntaxException {
+        Properties p = Properties.loadProperties(getResource("/test.properties"));
+        List<List<PropertiesEvent>> batches = new ArrayList<>();
+        p.addListener(batches::add);
+        p.put("one", "changed");
+        p.put("one", "changed");
+        p.put("five", "5");
+        p.putRaw("six", "\\u0036");
+        p.remove("two");
+        p.setComment("three", "# new comment");
+        assertThat(batches)
+                .containsExactly(
+                        Collections.singletonList(
+                                PropertiesEvent.changed("one", "simple", "changed")),
+                        Collections.singletonList(PropertiesEvent.added("five", "5")),
+                        Collections.singletonList(PropertiesEvent.added("six", "6")),
+                        Collections.singletonList(
+                                PropertiesEvent.removed("two", "value containing spaces")),
+                        Collections.singletonList(
+                                PropertiesEvent.commentChanged(
+                                        "three",
+                                        Arrays.asList(
+                                                "# another comment", "! and a comment", "! block"),
+                                        Collections.singletonList("# new comment"))));
+    }
+
+    @Test
+    void testBatch() throws IOException, URISyntaxException {
+        Properties p = Properties.loadProperties(getResource("/test.properties"));
+        List<List<PropertiesEvent>> batches = new ArrayList<>();
+        p.addListener(batches::add);
+        p.batch(
+                () -> {
+                    p.put("one", "changed");
+                    p.putCommented("five", "5", "comment");
+                });
+        assertThat(batches)
+                .containsExactly(
+                        Arrays.asList(
+                                PropertiesEvent.changed("one", "simple", "changed"),
+                                PropertiesEvent.added("five", "5"),
+                                PropertiesEvent.commentChanged(
+                                        "five",
+                                        Collections.emptyList(),
+                                        Collections.singletonList("# comment"))));
+        batches.clear();
+        p.clear();
+        assertThat(batches).hasSize(1);
+        assertThat(batches.get(0)).hasSize(8);
+        assertThat(batches.get(0).get(0)).isEqualTo(PropertiesEvent.removed("one", "changed"));
+    }
+
+    @Test
+    void testIteratorRemove() throws IOException, URISyntaxException {
+        Properties p = Properties.loadProperties(getResource("/test.properties"));
+        List<PropertiesEvent> events = new ArrayList<>();
+        PropertiesListener listener = events::addAll;
+        p.addListener(listener);
+        Iterator<String> iter = p.keySet().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().equals("three")) {
+                iter.remove();
+            }
+        }
+        assertThat(events)
+                .containsExactly(PropertiesEvent.removed("three", "and escapes\n\t\r\f"));
+        p.removeListener(listener);
+        p.put("one", "changed");
+        assertThat(events).hasSize(1);
+    }
+
+    private Path getResource(String name) throws URISyntaxException {
+        return Paths.get(getClass().getResource(name).toURI());
+    }
+}
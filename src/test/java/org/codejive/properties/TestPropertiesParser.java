@@ -4,6 +4,8 @@ import static org.assertj.core.api.Assertions.*;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -92,4 +94,73 @@ public class TestPropertiesParser {
         String props2 = tokens.map(Token::getRaw).collect(Collectors.joining());
         assertThat(props2).isEqualTo(props);
     }
+
+    @Test
+    void testLongTokens() throws IOException {
+        StringBuilder sc = new StringBuilder("#");
+        StringBuilder sv = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sc.append(" comment");
+            sv.append("long\\\n  ");
+        }
+        String comment = sc.toString();
+        String value = sv.toString();
+        StringReader rdr = new StringReader(comment + "\nkey=" + value + "\r\n");
+        List<PropertiesParser.Token> tokens =
+                PropertiesParser.tokens(rdr).collect(Collectors.toList());
+        assertThat(tokens)
+                .containsExactly(
+                        new Token(Type.COMMENT, comment),
+                        new Token(Type.WHITESPACE, "\n"),
+                        new Token(Type.KEY, "key"),
+                        new Token(Type.SEPARATOR, "="),
+                        new Token(Type.VALUE, value, PropertiesParser.unescape(value)),
+                        new Token(Type.WHITESPACE, "\r\n"));
+        assertThat(tokens.get(4).getText()).startsWith("longlonglong");
+    }
+
+    @Test
+    void testPull() throws IOException {
+        String longValue = String.join("", Collections.nCopies(5000, "long\\\n  "));
+        String input = props + "\nlong=" + longValue;
+        List<Token> expected =
+                PropertiesParser.tokens(new StringReader(input)).collect(Collectors.toList());
+        PropertiesParser parser = new PropertiesParser(new StringReader(input));
+        List<Token> pulled = new ArrayList<>();
+        Type type;
+        while ((type = parser.next()) != null) {
+            CharSequence raw = parser.getRaw();
+            CharSequence text = parser.getText();
+            assertThat(parser.getText()).isSameAs(text);
+            pulled.add(new Token(type, raw.toString(), text.toString()));
+        }
+        assertThat(pulled).isEqualTo(expected);
+        assertThat(pulled.stream().map(Token::getRaw).collect(Collectors.joining()))
+                .isEqualTo(input);
+        assertThat(pulled.get(pulled.size() - 1).getText()).startsWith("longlonglong");
+        assertThat(parser.next()).isNull();
+    }
+
+    @Test
+    void testPooledTokens() throws IOException {
+        List<Token> tokens =
+                PropertiesParser.tokens(new StringReader("a = 1\na = 2\nc:3\n"))
+                        .collect(Collectors.toList());
+        assertThat(tokens.get(1)).isSameAs(tokens.get(5));
+        assertThat(tokens.get(3)).isSameAs(tokens.get(7));
+        assertThat(tokens.get(9)).isNotSameAs(tokens.get(1));
+        // Keys and values are never shared
+        assertThat(tokens.get(4)).isNotSameAs(tokens.get(0));
+        assertThat(PropertiesParser.pooled(Type.SEPARATOR, " = ")).isSameAs(tokens.get(1));
+    }
+
+    @Test
+    void testLazyText() {
+        Token t = Token.escaped(Type.VALUE, "\\u0041b\\tc");
+        assertThat(t.getRaw()).isEqualTo("\\u0041b\\tc");
+        assertThat(t.getText()).isEqualTo("Ab\tc");
+        assertThat(t).isEqualTo(new Token(Type.VALUE, "\\u0041b\\tc", "Ab\tc"));
+        Token plain = Token.escaped(Type.VALUE, "plain");
+        assertThat(plain.getText()).isSameAs(plain.getRaw());
+    }
 }
@@ -0,0 +1,106 @@
+package org.codejive.properties;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class TestPropertiesWatcher {
+    @Test
+    void testReloadAppliesDiff() throws IOException {
+        Path f = Files.createTempFile("watched", ".properties");
+        try {
+            write(f, "# header\n\n# one\none = 1\ntwo:2\nthree=3\n");
+            Properties p = new Properties();
+            p.load(f);
+            List<PropertiesEvent> events = new ArrayList<>();
+            p.addListener(events::addAll);
+            PropertiesWatcher watcher = new PropertiesWatcher(f, p);
+            assertThat(watcher.reload()).isTrue();
+            assertThat(events).isEmpty();
+            assertThat(watcher.reload()).isFalse();
+
+            write(f, "# header\n\n# first\none = 1\ntwo:two\nfour=4\n");
+            assertThat(watcher.reload()).isTrue();
+            assertThat(events)
+                    .containsExactlyInAnyOrder(
+                            PropertiesEvent.commentChanged(
+                                    "one",
+                                    Collections.singletonList("# one"),
+                                    Collections.singletonList("# first")),
+                            PropertiesEvent.changed("two", "2", "two"),
+                            PropertiesEvent.added("four", "4"),
+                            PropertiesEvent.removed("three", "3"));
+            // Unchanged properties keep their formatting
+            assertThat(p.toString()).startsWith("# header\n\n# first\none = 1\ntwo:two\n");
+            assertThat(p.keySet()).containsExactly("one", "two", "four");
+        } finally {
+            Files.delete(f);
+        }
+    }
+
+    @Test
+    void testWatch() throws IOException, InterruptedException {
+        Path f = Files.createTempFile("watched", ".properties");
+        ConcurrentProperties cp = new ConcurrentProperties();
+        try (PropertiesWatcher watcher = new PropertiesWatcher(f, cp, Duration.ofMillis(10))) {
+            watcher.start();
+            write(f, "key=value\n");
+            for (int i = 0; i < 500 && cp.get("key") == null; i++) {
+                Thread.sleep(20);
+            }
+            assertThat(cp.get("key")).isEqualTo("value");
+        } finally {
+            Files.delete(f);
+        }
+    }
+
+    @Test
+    void testWatchSurvivesErrors() throws IOException, InterruptedException {
+        Path f = Files.createTempFile("watched", ".properties");
+        Properties p = new Properties();
+        List<RuntimeException> errors = Collections.synchronizedList(new ArrayList<>());
+        p.addListener(
+                events -> {
+                    if (errors.isEmpty()) {
+                        throw new IllegalStateException("listener failed");
+                    }
+                });
+        try (PropertiesWatcher watcher = new PropertiesWatcher(f, p, Duration.ofMillis(10))) {
+            watcher.onError(errors::add);
+            watcher.start();
+            write(f, "key=1\n");
+            for (int i = 0; i < 500 && errors.isEmpty(); i++) {
+                Thread.sleep(20);
+            }
+            assertThat(errors).hasSize(1);
+            assertThat(errors.get(0).getMessage()).isEqualTo("listener failed");
+            // The watcher is still running and applies the next change
+            write(f, "key=2\n");
+            for (int i = 0; i < 500 && !"2".equals(get(p, "key")); i++) {
+                Thread.sleep(20);
+            }
+            assertThat(get(p, "key")).isEqualTo("2");
+            assertThat(errors).hasSize(1);
+        } finally {
+            Files.delete(f);
+        }
+    }
+
+    private static String get(Properties p, String key) {
+        synchronized (p) {
+            return p.get(key);
+        }
+    }
+
+    private static void write(Path f, String text) throws IOException {
+        Files.write(f, text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,107 @@
+package org.codejive.properties;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.codejive.properties.PropertiesParser.Token;
+import org.codejive.properties.PropertiesParser.Type;
+import org.junit.jupiter.api.Test;
+
+public class TestTokenList {
+    @Test
+    void testInsertRemoveAcrossChunks() {
+        TokenList tl = new TokenList();
+        List<Token> expected = new ArrayList<>();
+        int count = TokenList.CHUNK_CAPACITY * 3;
+        for (int i = 0; i < count; i++) {
+            Token t = new Token(Type.VALUE, "v" + i);
+            tl.add(t);
+            expected.add(t);
+        }
+        for (int i = 0; i < count; i += 3) {
+            Token t = new Token(Type.COMMENT, "#" + i);
+            tl.add(i, t);
+            expected.add(i, t);
+        }
+        for (int i = count; i > 0; i -= 5) {
+            assertThat(tl.remove(i)).isSameAs(expected.remove(i));
+        }
+        assertThat(tl.size()).isEqualTo(expected.size());
+        assertThat(tl).containsExactly(expected.toArray());
+    }
+
+    @Test
+    void testIndexOfKey() {
+        TokenList tl = new TokenList();
+        tl.add(new Token(Type.KEY, "one"));
+        tl.add(new Token(Type.KEY, "two"));
+        tl.add(new Token(Type.KEY, "\\ three", " three"));
+        assertThat(tl.indexOfKey("two")).isEqualTo(1);
+        assertThat(tl.indexOfKey(" three")).isEqualTo(2);
+        tl.add(0, new Token(Type.COMMENT, "# comment"));
+        assertThat(tl.indexOfKey("one")).isEqualTo(1);
+        assertThat(tl.indexOfKey(" three")).isEqualTo(3);
+        tl.remove(2);
+        assertThat(tl.indexOfKey("two")).isEqualTo(-1);
+        assertThat(tl.indexOfKey(" three")).isEqualTo(2);
+        tl.add(new Token(Type.KEY, "two"));
+        assertThat(tl.indexOfKey("two")).isEqualTo(3);
+        tl.clear();
+        assertThat(tl.indexOfKey("one")).isEqualTo(-1);
+    }
+
+    @Test
+    void testRemovedKeyLeavesNoStaleEntry() {
+        TokenList tl = new TokenList();
+        tl.add(new Token(Type.KEY, "one"));
+        tl.add(new Token(Type.KEY, "two"));
+        tl.add(new Token(Type.KEY, "three"));
+        assertThat(tl.indexOfKey("three")).isEqualTo(2);
+        // Both removals happen before the next lookup, so the second one removes
+        // a key whose entry in the index still has its old position
+        tl.remove(0);
+        tl.remove(1);
+        assertThat(tl.indexOfKey("three")).isEqualTo(-1);
+        assertThat(tl.indexOfKey("two")).isEqualTo(0);
+    }
+
+    @Test
+    void testEditsDontRescan() {
+        TokenList tl = new TokenList();
+        int count = TokenList.CHUNK_CAPACITY * 8;
+        for (int i = 0; i < count; i++) {
+            tl.add(new Token(Type.KEY, "k" + i));
+        }
+        assertThat(tl.indexOfKey("k0")).isEqualTo(0);
+        long scanned = tl.scanned();
+        assertThat(scanned).isEqualTo(count);
+        // Alternate inserts and removals near the front with lookups of keys behind them
+        for (int i = 0; i < count / 2; i++) {
+            tl.add(i, new Token(Type.COMMENT, "# " + i));
+            assertThat(tl.indexOfKey("k" + i)).isEqualTo(i + 1);
+            assertThat(tl.indexOfKey("k" + (count - 1))).isEqualTo(count);
+            tl.remove(i + 1);
+            assertThat(tl.indexOfKey("k" + i)).isEqualTo(-1);
+            assertThat(tl.indexOfKey("k" + (count - 1))).isEqualTo(count - 1);
+        }
+        assertThat(tl.scanned()).isEqualTo(scanned);
+    }
+
+    @Test
+    void testIndexOfDuplicateKey() {
+        TokenList tl = new TokenList();
+        Token first = new Token(Type.KEY, "dup");
+        tl.add(new Token(Type.KEY, "one"));
+        tl.add(first);
+        tl.add(new Token(Type.KEY, "dup"));
+        assertThat(tl.indexOfKey("dup")).isEqualTo(1);
+        tl.add(0, new Token(Type.KEY, "dup"));
+        assertThat(tl.indexOfKey("dup")).isEqualTo(0);
+        tl.remove(0);
+        tl.remove(1);
+        assertThat(tl.indexOfKey("dup")).isEqualTo(1);
+        tl.set(1, new Token(Type.VALUE, "dup"));
+        assertThat(tl.indexOfKey("dup")).isEqualTo(-1);
+    }
+}